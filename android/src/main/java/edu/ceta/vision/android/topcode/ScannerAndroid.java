@@ -48,6 +48,9 @@ public class ScannerAndroid extends Scanner {
 
    /** Binary view of the image */
    protected Bitmap preview;
+
+   /** Pixels of the scanned Bitmap, reused from one scan to the next */
+   private int[] pixels;
    
 
 
@@ -72,27 +75,43 @@ public class ScannerAndroid extends Scanner {
 	  this.preview = null;
       this.w       = image.getWidth();
       this.h       = image.getHeight();
-      if (data == null || data.length < w * h) {
-         this.data  = new int[w * h];
+      if (pixels == null || pixels.length < w * h) {
+         this.pixels = new int[w * h];
       }
-      image.getPixels(this.data, 0, w, 0, 0, w, h);
+      image.getPixels(this.pixels, 0, w, 0, 0, w, h);
+      setRGBInput(this.pixels, 0, w, h, w);
       
       threshold(fvalue);          // run the adaptive threshold filter
       return findCodes();   // scan for topcodes
    }
    
+   /**
+    * Scan the given image thresholding it with several sensitivity factors 
+    * in a single pass, and return the topcodes found with any of them. 
+    * Replaces alternating the factor from one frame to the next.
+    */
+   public List<TopCode> scan(Bitmap image, double[] fvalues) {
+	  this.preview = null;
+      this.w       = image.getWidth();
+      this.h       = image.getHeight();
+      if (pixels == null || pixels.length < w * h) {
+         this.pixels = new int[w * h];
+      }
+      image.getPixels(this.pixels, 0, w, 0, 0, w, h);
+      setRGBInput(this.pixels, 0, w, h, w);
+      
+      threshold(fvalues);   // run the adaptive threshold filter
+      return findCodes();   // scan for topcodes
+   }
+   
    /**
     * Scan the given image and return a list of all topcodes found in it.
     * smarichal: Added this method receiving the int array directly instead of the bitmap image
+    * The array is read in place (never modified), without copying it.
     */
    public List<TopCode> scan(int data[], int width, int height){
 	   this.preview = null;
-	   this.w=width;
-	   this.h=height;
-	   if (this.data == null || this.data.length < w * h) {
-		   this.data  = new int[w * h];
-       }
-	   System.arraycopy(data, 0, this.data, 0, data.length);
+	   setRGBInput(data, 0, width, height, width);
 	   
 	   threshold();          // run the adaptive threshold filter
        return findCodes();   // scan for topcodes
@@ -100,6 +119,15 @@ public class ScannerAndroid extends Scanner {
 
   
 
+   /**
+    * Drops the preview of the previous image when a frame is loaded 
+    * through one of the Scanner scan methods (e.g. the Y plane of an 
+    * NV21 camera frame, or a window of a larger frame).
+    */
+   protected void imageChanged() {
+	   this.preview = null;
+   }
+
   
   /**
    * For debugging purposes, create a black and white image that
@@ -108,52 +136,19 @@ public class ScannerAndroid extends Scanner {
    public Bitmap getPreview() {
 	   if (this.preview != null) return preview;
 	   this.preview = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-
-	   int pixel = 0;
-	   int k = 0;
-	   for (int j=0; j<h; j++) { 
-		   for (int i=0; i<w; i++) {
-
-			   pixel = (data[k++] >> 24);
-			   if (pixel == 0) {
-				   pixel = 0xFF000000;
-			   } else if (pixel == 1) {
-				   pixel = 0xFFFFFFFF;
-			   } else if (pixel == 3) {
-				   pixel = 0xFF00FF00;
-			   } else if (pixel == 7) {
-				   pixel = 0xFFFF0000;
-			   }
-			   this.preview.setPixel(i, j, pixel);
-		   }
-	   }
+	   this.preview.setPixels(getPreviewPixels(), 0, w, 0, 0, w, h);
 	   return preview;
    }
    
    
-   //TODO Test this method
+   /**
+    * Binary view of the image as a libGDX pixmap, ready to be uploaded
+    * to a texture.  The pixels are copied in bulk from the preview of 
+    * the last scan; the caller owns (and disposes) the pixmap.
+    */
    public Pixmap getGdxPreview(){
 	   Pixmap p = new Pixmap(w, h, Format.RGBA8888);
-	   int pixel = 0;
-	   int k = 0;
-	   for (int j=0; j<h; j++) { 
-		   for (int i=0; i<w; i++) {
-			   pixel = (data[k++] >> 24);
-			   if (pixel == 0) {
-				   //pixel = 0xFF000000;
-				   pixel = 0x000000FF;
-			   } else if (pixel == 1) {
-				   pixel = 0xFFFFFFFF;
-			   } else if (pixel == 3) {
-				   //pixel = 0xFF00FF00;
-				   pixel = 0x0000FF00FF;
-			   } else if (pixel == 7) {
-				   //pixel = 0xFFFF0000;
-				   pixel = 0x00FF00FF;
-			   }
-			   p.drawPixel(i, j, pixel);
-		   }
-	   }
+	   renderPreview(p.getPixels());
 	   return p;
    }
 }
@@ -73,15 +73,11 @@ public class ScannerAndroidNative extends Scanner {
    /**
     * Scan the given image and return a list of all topcodes found in it.
     * smarichal: Added this method receiving the int array directly instead of the bitmap image
+    * The array is read in place (never modified), without copying it.
     */
    public List<TopCode> scan(int data[], int width, int height){
 	   this.preview = null;
-	   this.w=width;
-	   this.h=height;
-	   if (this.data == null || this.data.length < w * h) {
-		   this.data  = new int[w * h];
-       }
-	   System.arraycopy(data, 0, this.data, 0, data.length);
+	   setRGBInput(data, 0, width, height, width);
 	   
 	   threshold();          // run the adaptive threshold filter
        return findCodes();   // scan for topcodes
@@ -100,6 +96,15 @@ public class ScannerAndroidNative extends Scanner {
    public native TopCode[] scanNativeDataArray(int[] data, boolean isColorImage,int width, int height);
    public native TopCode[] scanNativeMat(long image, boolean isColorImage);
 
+   /**
+    * Drops the preview of the previous image when a frame is loaded 
+    * through one of the Scanner scan methods (e.g. the Y plane of an 
+    * NV21 camera frame, or a window of a larger frame).
+    */
+   protected void imageChanged() {
+	   this.preview = null;
+   }
+
   
   /**
    * For debugging purposes, create a black and white image that
@@ -108,25 +113,7 @@ public class ScannerAndroidNative extends Scanner {
    public Bitmap getPreview() {
 	   if (this.preview != null) return preview;
 	   this.preview = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-
-	   int pixel = 0;
-	   int k = 0;
-	   for (int j=0; j<h; j++) { 
-		   for (int i=0; i<w; i++) {
-
-			   pixel = (data[k++] >> 24);
-			   if (pixel == 0) {
-				   pixel = 0xFF000000;
-			   } else if (pixel == 1) {
-				   pixel = 0xFFFFFFFF;
-			   } else if (pixel == 3) {
-				   pixel = 0xFF00FF00;
-			   } else if (pixel == 7) {
-				   pixel = 0xFFFF0000;
-			   }
-			   this.preview.setPixel(i, j, pixel);
-		   }
-	   }
+	   this.preview.setPixels(getPreviewPixels(), 0, w, 0, 0, w, h);
 	   return preview;
    }
 
@@ -5,27 +5,14 @@ import java.util.List;
 import edu.ceta.vision.core.topcode.Scanner;
 import edu.ceta.vision.core.topcode.TopCode;
 
+/**
+ * Scanner that thresholds packed RGB input in place, as the original
+ * TopCodes scanner did: the binary value and the candidate mark of every
+ * pixel are written into the alpha byte of data, so unlike Scanner it
+ * overwrites its input.  data is read from offset 0 with a stride of w.
+ */
 public abstract class ScannerTuned extends Scanner{
 	
-	
-   /** Total width of image */
-   protected int w;
-
-   /** Total height of image */
-   protected int h;
-
-   /** Holds processed binary pixel data */
-   protected int[] data;
-
-   /** Candidate code count */
-   protected int ccount;
-
-   /** Number of candidates tested */
-   protected int tcount;
-
-   /** Maximum width of a TopCode unit in pixels */
-   protected int maxu;
-
 	   
 	   /**
 	    * Counts the number of vertical pixels from (x,y) until a color
@@ -300,57 +287,4 @@ public abstract class ScannerTuned extends Scanner{
 		  }
 		  return false;
 	  }
-	
-	
-	  /**
-	   * Returns the number of candidate topcodes found during a scan
-	   */
-	  public int getCandidateCount() {
-		  return this.ccount;
-	  }
-	
-	
-	  /**
-	   * Returns the number of topcodes tested during a scan
-	   */
-	  public int getTestedCount() {
-		  return this.tcount;
-	  }
-
-
-	         
-	 /**
-	  * Sets the maximum allowable diameter (in pixels) for a TopCode
-	  * identified by the scanner.  Setting this to a reasonable value for
-	  * your application will reduce false positives (recognizing codes that
-	  * aren't actually there) and improve performance (because fewer
-	  * candidate codes will be tested).  Setting this value to as low as 50
-	  * or 60 pixels could be advisable for some applications.  However,
-	  * setting the maximum diameter too low will prevent valid codes from
-	  * being recognized.  The default value is 640 pixels.
-	  */
-	 public void setMaxCodeDiameter(int diameter) {
-		 float f = diameter / 8.0f;
-		 this.maxu = (int)Math.ceil(f);
-	 }
-
-	 /**
-	  * Returns the width in pixels of the current image (or zero if no image is
-	  * loaded).
-	  */
-	 public int getImageWidth() {
-		 return this.w;
-	 }
-
-
-	 /**
-	  * Returns the width in pixels of the current image (or zero if no image is
-	  * loaded).
-	  */
-	 public int getImageHeight() {
-		 return this.h;
-	 }
-
-	            
-	            
 }
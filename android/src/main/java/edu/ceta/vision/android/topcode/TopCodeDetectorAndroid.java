@@ -1,8 +1,7 @@
 package edu.ceta.vision.android.topcode;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.opencv.android.Utils;
@@ -11,6 +10,8 @@ import org.opencv.core.Rect;
 
 import android.graphics.Bitmap;
 import edu.ceta.vision.core.blocks.Block;
+import edu.ceta.vision.core.topcode.FrameSource;
+import edu.ceta.vision.core.topcode.PixelFormat;
 import edu.ceta.vision.core.topcode.Scanner;
 import edu.ceta.vision.core.topcode.TopCodeDetector;
 import edu.ceta.vision.core.utils.Logger;
@@ -20,6 +21,18 @@ public class TopCodeDetectorAndroid extends TopCodeDetector {
 
 	protected Bitmap bmp;
 	
+	/** Reused buffer of the native scanner's color frames */
+	protected int[] pixelBuffer;
+	
+	/** Describes the current frame to the scanner */
+	protected FrameSource frame = new FrameSource();
+	
+	/** Bytes of the current Mat frame, whose array is reused from one frame to the next */
+	protected FrameSource matFrame = new FrameSource();
+	
+	/** Detection zone clipped to the current frame */
+	private Rect clippedZone = new Rect();
+	
 	public TopCodeDetectorAndroid(int max_markers, boolean probMode, int max_marker_diameter, 
 								int size_cache, boolean cacheEnabled, boolean allow_different_spot_distance, 
 								boolean use_native_scanner,boolean multiple_markers_per_block, Rect detectionZone){
@@ -35,68 +48,98 @@ public class TopCodeDetectorAndroid extends TopCodeDetector {
 		}
 	}
 	
-	private Mat cutImage(Mat rgbaImage){
-		if(this.detectionZone!=null)
-			return rgbaImage.submat(this.detectionZone);
-		else
-			return rgbaImage;
+	/**
+	 * Clips the detection zone (the whole frame when there is none) to a frame of the given size
+	 */
+	private Rect clipZone(int frameWidth, int frameHeight){
+		clippedZone.x = 0;
+		clippedZone.y = 0;
+		clippedZone.width = frameWidth;
+		clippedZone.height = frameHeight;
+		if(this.detectionZone!=null){
+			clippedZone.x = Math.max(0, this.detectionZone.x);
+			clippedZone.y = Math.max(0, this.detectionZone.y);
+			clippedZone.width = Math.min(frameWidth, this.detectionZone.x + this.detectionZone.width) - clippedZone.x;
+			clippedZone.height = Math.min(frameHeight, this.detectionZone.y + this.detectionZone.height) - clippedZone.y;
+		}
+		return clippedZone;
+	}
+	
+	/**
+	 * Points matFrame to the bytes of the whole Mat (gray, RGB or RGBA). The Java Mat of 
+	 * OpenCV 2.4 only hands its pixels out through get(), so they are copied once, into 
+	 * the array matFrame already holds.
+	 */
+	private FrameSource readFrame(Mat img){
+		int channels = img.channels();
+		int size = (int)img.total()*channels;
+		byte[] data = matFrame.getData();
+		if(data==null || data.length<size){
+			data = new byte[size];
+		}
+		img.get(0, 0, data);
+		PixelFormat format = (channels==1) ? PixelFormat.GRAY8 : 
+			(channels==3) ? PixelFormat.RGB : PixelFormat.RGBA;
+		return matFrame.set(data, 0, img.cols(), img.rows(), img.cols()*channels, format);
 	}
 	
 	public synchronized Set<Block> detectBlocks(Mat img, double fvalue){
+		return detectBlocks(img, new double[]{fvalue});
+	}
+	
+	/**
+	 * Detects the blocks thresholding the image with all the given sensitivity 
+	 * factors in a single pass (e.g. {0.85, 0.975} instead of alternating them 
+	 * between frames). The native scanner ignores the factors.
+	 */
+	public synchronized Set<Block> detectBlocks(Mat img, double[] fvalues){
 		Logger.error("detectBlocks!");
-		 Mat image = cutImage(img);
 		if(this.scanner instanceof ScannerAndroidNative){			
-			//Mat grey = new Mat();
-			//Imgproc.cvtColor(rgb, grey, Imgproc.COLOR_RGBA2GRAY);
-			//nativeScanner.scan(dataInt, rgbaImage.width(), rgbaImage.height());
 			boolean isColor = !(img.channels()==1);
 			if(isColor){
-				byte data[] = new byte[(int)img.total()*img.channels()];
-				img.get(0, 0,data);
-
-				ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-				DataInputStream in = new DataInputStream(inputStream);
-				int dataInt[] = new int[(int)img.total()];
-				try{
-					for(int i=0;i<dataInt.length;i++){
-						dataInt[i] = in.readInt();
-					}
-				}catch(IOException e){
-					e.printStackTrace();
+				int size = (int)img.total()*img.channels();
+				byte[] bytes = readFrame(img).getData();
+				
+				//the native scanner takes every 4 bytes as one big endian int
+				int total = (int)img.total();
+				int ints = Math.min(total, size/4);
+				if(pixelBuffer==null || pixelBuffer.length<total){
+					pixelBuffer = new int[total];
 				}
+				ByteBuffer.wrap(bytes, 0, ints*4).asIntBuffer().get(pixelBuffer, 0, ints);
+				Arrays.fill(pixelBuffer, ints, total, 0);
 				
-				this.markers = ((ScannerAndroidNative)this.scanner).scan(dataInt, img.width(), img.height(), isColor);
+				this.markers = ((ScannerAndroidNative)this.scanner).scan(pixelBuffer, img.width(), img.height(), isColor);
 			}else{
+				Mat image = (this.detectionZone!=null) ? img.submat(this.detectionZone) : img;
 				this.markers = ((ScannerAndroidNative)this.scanner).scan(image, isColor);
 			}
 			Logger.error("$$$$$$$$ markers found JavaScanner = " + this.markers.size() + " $$$$$$$$$");
 		}else{
-			bmp = Bitmap.createBitmap(image.cols(), image.rows(), Bitmap.Config.ARGB_8888);
-			Utils.matToBitmap(image, bmp);
-			this.markers = ((ScannerAndroid)this.scanner).scan(this.bmp, fvalue);
-			
-			
-			/*----------------  PRUEBAS INT ARRAY
-			//byte data[] = new byte[(int)rgbaImage.total()*rgbaImage.channels()];
-			//rgbaImage.get(0, 0,data);
-			
-			/*ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-			DataInputStream in = new DataInputStream(inputStream);
-			int dataInt[] = new int[(int)rgbaImage.total()];
-			try{
-				for(int i=0;i<dataInt.length;i++){
-					dataInt[i] = in.readInt();
-				}
-			}catch(IOException e){
-				e.printStackTrace();
-			}
-			
-			this.markers = ((ScannerAndroid)this.scanner).scan(dataInt, rgbaImage.width(), rgbaImage.height());
-			----------------------------   */
-	
-			
-//			bmp.recycle();
+			//the frame bytes are thresholded as they come from the camera (gray, RGB or RGBA), 
+			//without going through an ARGB bitmap. Only the detection zone is read.
+			Rect zone = clipZone(img.cols(), img.rows());
+			this.markers = scanFrame(readFrame(img), zone.x, zone.y, zone.width, zone.height, fvalues);
 		}
+		return computeBlocks();
+	}
+	
+	/**
+	 * Detects the blocks in a grayscale camera frame (e.g. the Y plane of an 
+	 * NV21 preview buffer, whose first width*height bytes are the luma). Only 
+	 * the detection zone is thresholded and it is read in place, without 
+	 * copying it out of the frame. Markers are located relative to the 
+	 * detection zone, as in detectBlocks(Mat, double[]). With tracking enabled 
+	 * only the windows around the previous markers are read.
+	 */
+	public synchronized Set<Block> detectBlocks(byte[] nv21, int frameWidth, int frameHeight, double[] fvalues){
+		Rect zone = clipZone(frameWidth, frameHeight);
+		frame.set(nv21, 0, frameWidth, frameHeight, frameWidth, PixelFormat.NV21);
+		this.markers = scanFrame(frame, zone.x, zone.y, zone.width, zone.height, fvalues);
+		return computeBlocks();
+	}
+	
+	private Set<Block> computeBlocks(){
 		if(multiple_markers_per_block){
 	        groupMarkers();
 	        computeMultiMarkersBlocks();
@@ -104,7 +147,6 @@ public class TopCodeDetectorAndroid extends TopCodeDetector {
 			computeSingleMarkersBlocks();
 		}
         return this.blocks;
-		
 	}
 	
 	public Scanner getScanner(){
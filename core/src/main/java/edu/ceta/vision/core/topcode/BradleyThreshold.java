@@ -0,0 +1,128 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Bradley-Roth adaptive thresholding.  Every pixel is compared against
+ * the mean intensity of a square window centered on it, read from an
+ * integral image in constant time.  Unlike the Wellner filter there is
+ * no state carried from pixel to pixel, so bands need no warm-up and
+ * the result does not depend on how the image is split.  It copes
+ * better with uneven lighting because the window looks both up and down.
+ *
+ * With the scanner's default sensitivity factor (0.85) a pixel is black
+ * when it is 15% darker than its surroundings, as in the original paper.
+ *
+ * "Adaptive Thresholding Using the Integral Image"
+ * Journal of Graphics Tools, 12(2), 2007
+ */
+public class BradleyThreshold implements ThresholdStrategy {
+
+	/** Window side in pixels, or 0 to use an eighth of the image width */
+	protected int window;
+	
+	/** Half window side used for the current image */
+	protected int radius;
+	
+	/**
+	 * Integral image: sum of all intensities above and to the left of each
+	 * pixel, with an extra zero row and column.  Totals may overflow on
+	 * very large images, but window sums are differences of four entries
+	 * and stay exact as long as a single window sums below 2^31.
+	 */
+	protected int[] integral;
+	
+	/** Width of a row of the integral image (image width + 1) */
+	protected int iw;
+	
+	/** Image height */
+	protected int ih;
+	
+	/** Row buffer used while building the integral image */
+	protected int[] row;
+	
+	
+	public BradleyThreshold() {
+		this(0);
+	}
+	
+	/**
+	 * @param window side (in pixels) of the averaging window, or 0 to use
+	 * 				an eighth of the image width
+	 */
+	public BradleyThreshold(int window) {
+		this.window = window;
+	}
+	
+	
+	public void prepare(Scanner scanner) {
+		int w = scanner.getImageWidth();
+		int h = scanner.getImageHeight();
+		int rowsum, k;
+		
+		this.iw = w + 1;
+		this.ih = h;
+		this.radius = Math.max(1, ((window > 0) ? window : w / 8) / 2);
+		if (integral == null || integral.length < iw * (h + 1)) {
+			this.integral = new int[iw * (h + 1)];
+		}
+		if (row == null || row.length < w) {
+			this.row = new int[w];
+		}
+		
+		for (int i=0; i<iw; i++) {
+			integral[i] = 0;
+		}
+		for (int j=0; j<h; j++) {
+			scanner.readIntensities(j, row);
+			k = (j + 1) * iw;
+			integral[k++] = 0;
+			rowsum = 0;
+			for (int i=0; i<w; i++) {
+				rowsum += row[i];
+				integral[k] = integral[k - iw] + rowsum;
+				k++;
+			}
+			prepareRow(j, row);
+		}
+	}
+	
+	
+	/**
+	 * Hook for subclasses that need more per-pixel tables; called by
+	 * prepare() for every row, after the integral image row is built.
+	 */
+	protected void prepareRow(int j, int[] lum) {
+	}
+	
+	
+	public int threshold(Scanner scanner, int from, int to, 
+			int[] lum, int[] thresh, int[] scratch) {
+		int w = iw - 1;
+		int count = 0;
+		int x0, x1, y0, y1, n;
+		
+		for (int j=from; j<to; j++) {
+			scanner.readIntensities(j, lum);
+			y0 = Math.max(0, j - radius) * iw;
+			y1 = (Math.min(ih - 1, j + radius) + 1) * iw;
+			
+			for (int i=0; i<w; i++) {
+				x0 = Math.max(0, i - radius);
+				x1 = Math.min(w - 1, i + radius) + 1;
+				n = (x1 - x0) * ((y1 - y0) / iw);
+				thresh[i] = level(y0 + x0, y0 + x1, y1 + x0, y1 + x1, n);
+			}
+			count += scanner.binarizeRow(j, lum, thresh);
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * Local threshold of a window, given the integral image indices of
+	 * its top-left, top-right, bottom-left and bottom-right corners and
+	 * the number of pixels it covers.  Bradley uses the window mean.
+	 */
+	protected int level(int tl, int tr, int bl, int br, int n) {
+		return (integral[br] - integral[tr] - integral[bl] + integral[tl]) / n;
+	}
+}
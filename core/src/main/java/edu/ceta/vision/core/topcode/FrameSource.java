@@ -0,0 +1,146 @@
+package edu.ceta.vision.core.topcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes a frame held in a byte array or a ByteBuffer (heap, direct
+ * or memory-mapped): its pixel format, size and row stride.  It is the common ingest path of every platform (OpenCV
+ * Mats, Android camera buffers, BufferedImage rasters): Scanner reads
+ * the bytes in place, without converting the frame to packed RGB ints
+ * first.  The bytes are never modified.
+ *
+ * A FrameSource can be reused from one frame to the next with set().
+ */
+public class FrameSource {
+
+	/** Frame bytes, or null when the frame is held in buffer */
+	protected byte[] data;
+	
+	/** Frame bytes when they are not in a heap array, or null */
+	protected ByteBuffer buffer;
+	
+	/** Index (absolute, in data or buffer) of the first byte of pixel (0,0) */
+	protected int offset;
+	
+	/** Width of the frame in pixels */
+	protected int width;
+	
+	/** Height of the frame in pixels */
+	protected int height;
+	
+	/** Distance in bytes between the starts of two rows */
+	protected int stride;
+	
+	/** Byte layout of every pixel */
+	protected PixelFormat format;
+	
+	
+	public FrameSource() {
+	}
+	
+	/**
+	 * Tightly packed frame: rows start right after each other
+	 */
+	public FrameSource(byte[] data, int width, int height, PixelFormat format) {
+		set(data, 0, width, height, width * format.getBytesPerPixel(), format);
+	}
+	
+	public FrameSource(byte[] data, int offset, int width, int height, int stride, PixelFormat format) {
+		set(data, offset, width, height, stride, format);
+	}
+	
+	/**
+	 * Points this source to a new frame.
+	 * 
+	 * @param data frame bytes
+	 * @param offset index of the first byte of pixel (0,0)
+	 * @param width width in pixels
+	 * @param height height in pixels
+	 * @param stride distance in bytes between the starts of two rows
+	 * @param format byte layout of the pixels
+	 * @return this source
+	 */
+	public FrameSource set(byte[] data, int offset, int width, int height, int stride, PixelFormat format) {
+		check(data.length, offset, width, height, stride, format);
+		this.data = data;
+		this.buffer = null;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		this.format = format;
+		return this;
+	}
+	
+	/**
+	 * Points this source to a frame held in a ByteBuffer, typically a 
+	 * direct buffer filled by a capture process or a MappedByteBuffer of a
+	 * recorded frame file (FileChannel.map), so the frame never has to be 
+	 * copied onto the Java heap.  The buffer is read with absolute gets: 
+	 * offset is an index in the buffer, and its position and limit are
+	 * left untouched.
+	 * 
+	 * @return this source
+	 */
+	public FrameSource set(ByteBuffer buffer, int offset, int width, int height, int stride, PixelFormat format) {
+		check(buffer.limit(), offset, width, height, stride, format);
+		this.data = null;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		this.format = format;
+		return this;
+	}
+	
+	private void check(int length, int offset, int width, int height, int stride, PixelFormat format) {
+		int row = width * format.getBytesPerPixel();
+		if (offset < 0 || width < 0 || height < 0 || stride < row ||
+				(height > 0 && length < offset + (height - 1) * stride + row)) {
+			throw new IllegalArgumentException("Buffer too small for " + width + "x" + height + 
+					" " + format + " frame at offset " + offset + " with stride " + stride);
+		}
+	}
+	
+	/**
+	 * Frame bytes, or null when the frame is held in a ByteBuffer
+	 */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/**
+	 * Frame bytes when they were given as a ByteBuffer, or null
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	
+	public int getOffset() {
+		return offset;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	public int getStride() {
+		return stride;
+	}
+	
+	public PixelFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Index of the first byte of pixel (x,y)
+	 */
+	public int indexOf(int x, int y) {
+		return offset + y * stride + x * format.getBytesPerPixel();
+	}
+}
@@ -0,0 +1,56 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Byte layouts of the camera frames a Scanner can read in place (see
+ * FrameSource).  Color formats are turned into intensities by averaging
+ * their three color bytes, so the order of the components only matters
+ * to find where the color bytes start.
+ */
+public enum PixelFormat {
+
+	/** One intensity byte per pixel */
+	GRAY8(1, 0),
+	
+	/** YUV 4:2:0 camera frame (Android); only the leading Y plane is read */
+	NV21(1, 0),
+	
+	/** Three color bytes per pixel, blue first (OpenCV, 3BYTE_BGR) */
+	BGR(3, 0),
+	
+	/** Three color bytes per pixel, red first */
+	RGB(3, 0),
+	
+	/** Four bytes per pixel, alpha last (Android OpenCV frames) */
+	RGBA(4, 0),
+	
+	/** Four bytes per pixel, alpha last */
+	BGRA(4, 0),
+	
+	/** Four bytes per pixel, alpha first */
+	ARGB(4, 1),
+	
+	/** Four bytes per pixel, alpha first */
+	ABGR(4, 1);
+	
+	private final int bytesPerPixel;
+	private final int colorOffset;
+	
+	private PixelFormat(int bytesPerPixel, int colorOffset) {
+		this.bytesPerPixel = bytesPerPixel;
+		this.colorOffset = colorOffset;
+	}
+	
+	/**
+	 * Number of bytes taken by a single pixel
+	 */
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+	
+	/**
+	 * Index of the first color (or intensity) byte within a pixel
+	 */
+	public int getColorOffset() {
+		return colorOffset;
+	}
+}
@@ -0,0 +1,109 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Precomputed sampling geometry for TopCode.decode().  The decoder tries
+ * 5 unit scales and 10 arc adjustments, reading 8 samples across the
+ * symbol in each of its 13 sectors.  Instead of evaluating a cosine, a
+ * sine and two roundings per sample, it walks from the center in fixed
+ * point (1/65536 of a pixel) with the steps kept here.
+ *
+ * The directions of every (arc adjustment, sector) pair are shared by
+ * all instances.  The steps depend on the unit measured by readUnit,
+ * which is always a multiple of 1/8 pixel, so they are cached by that
+ * eighth: a small direct-mapped cache where a unit evicts the one in its
+ * slot.  Each scanner keeps its own cache, so no locking is needed.
+ */
+public class SampleOffsets {
+
+	/** Unit scales tried by the decoder: unit * (1 + 0.05 * (s - 2)) */
+	public static final int SCALES = 5;
+
+	/** Arc adjustments tried by the decoder: a * ARC / 10 */
+	public static final int ARCS = 10;
+
+	/** Fraction bits of the fixed point positions and steps */
+	public static final int SHIFT = 16;
+
+	/** One pixel in fixed point */
+	public static final int ONE = 1 << SHIFT;
+
+	/** Units (in eighths of a pixel) held at once; a power of two */
+	protected static final int SLOTS = 16;
+
+	/** Direction of every sector with every arc adjustment */
+	protected static final float[] COS, SIN;
+
+	static {
+		int sectors = TopCode.SECTORS;
+		COS = new float[ARCS * sectors];
+		SIN = new float[ARCS * sectors];
+		for (int a=0; a<ARCS; a++) {
+			float arca = getArc(a);
+			for (int sector=0; sector<sectors; sector++) {
+				COS[a * sectors + sector] = (float)Math.cos(TopCode.ARC * sector + arca);
+				SIN[a * sectors + sector] = (float)Math.sin(TopCode.ARC * sector + arca);
+			}
+		}
+	}
+
+	private int[] keys = new int[SLOTS];
+
+	private int[][] tables = new int[SLOTS][];
+
+
+	public SampleOffsets() {
+		java.util.Arrays.fill(keys, -1);
+	}
+
+
+	/**
+	 * Arc adjustment a (in radians), as the decoder computes it.
+	 */
+	public static float getArc(int a) {
+		return a * TopCode.ARC * 0.1f;
+	}
+
+
+	/**
+	 * Unit scale s applied to unit, as the decoder computes it.
+	 */
+	public static float getUnit(float unit, int s) {
+		return unit + (unit * 0.05f * (s - 2));
+	}
+
+
+	/**
+	 * Returns the half sample steps for the given unit: for scale s, arc
+	 * adjustment a and sector, the x and y steps are at index
+	 * ((s * ARCS + a) * SECTORS + sector) * 2.  Samples are taken at odd
+	 * multiples of the half step, from -7 (3.5 units) to 7.
+	 */
+	public int[] get(float unit) {
+		int key = Math.round(unit * 8);
+		int slot = key & (SLOTS - 1);
+		if (keys[slot] != key || tables[slot] == null) {
+			tables[slot] = build(key / 8.0f, tables[slot]);
+			keys[slot] = key;
+		}
+		return tables[slot];
+	}
+
+
+	private static int[] build(float unit, int[] steps) {
+		int sectors = TopCode.SECTORS;
+		if (steps == null) {
+			steps = new int[SCALES * ARCS * sectors * 2];
+		}
+		int k = 0;
+		for (int s=0; s<SCALES; s++) {
+			double half = getUnit(unit, s) * (ONE / 2);
+			for (int a=0; a<ARCS; a++) {
+				for (int sector=0; sector<sectors; sector++) {
+					steps[k++] = (int)Math.round(COS[a * sectors + sector] * half);
+					steps[k++] = (int)Math.round(SIN[a * sectors + sector] * half);
+				}
+			}
+		}
+		return steps;
+	}
+}
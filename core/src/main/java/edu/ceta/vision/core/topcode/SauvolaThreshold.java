@@ -0,0 +1,80 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Sauvola adaptive thresholding.  Like Bradley it looks at a square
+ * window around every pixel, but the threshold also depends on the
+ * window's standard deviation:
+ *
+ *    T = mean * (1 + k * (stddev / R - 1))
+ *
+ * so flat regions (low contrast, e.g. shadows on the table) get a lower
+ * threshold and are less likely to turn into black noise.  The scanner's
+ * sensitivity factor is applied on top of T.
+ *
+ * "Adaptive document image binarization"
+ * Pattern Recognition 33(2), 2000
+ */
+public class SauvolaThreshold extends BradleyThreshold {
+
+	/** Weight of the standard deviation term */
+	protected double k;
+	
+	/** Dynamic range of the standard deviation */
+	protected double r;
+	
+	/** Integral image of squared intensities */
+	protected long[] squares;
+	
+	
+	public SauvolaThreshold() {
+		this(0, 0.1, 128);
+	}
+	
+	/**
+	 * @param window side (in pixels) of the window, or 0 to use an eighth
+	 * 				of the image width
+	 * @param k weight of the standard deviation term
+	 * @param r dynamic range of the standard deviation
+	 */
+	public SauvolaThreshold(int window, double k, double r) {
+		super(window);
+		this.k = k;
+		this.r = r;
+	}
+	
+	
+	public void prepare(Scanner scanner) {
+		int size = (scanner.getImageWidth() + 1) * (scanner.getImageHeight() + 1);
+		if (squares == null || squares.length < size) {
+			this.squares = new long[size];
+		}
+		super.prepare(scanner);
+	}
+	
+	
+	protected void prepareRow(int j, int[] lum) {
+		int w = iw - 1;
+		int k = (j + 1) * iw;
+		long rowsum = 0;
+		
+		if (j == 0) {
+			for (int i=0; i<iw; i++) {
+				squares[i] = 0;
+			}
+		}
+		squares[k++] = 0;
+		for (int i=0; i<w; i++) {
+			rowsum += lum[i] * lum[i];
+			squares[k] = squares[k - iw] + rowsum;
+			k++;
+		}
+	}
+	
+	
+	protected int level(int tl, int tr, int bl, int br, int n) {
+		double mean = (integral[br] - integral[tr] - integral[bl] + integral[tl]) / (double)n;
+		double sq = (squares[br] - squares[tr] - squares[bl] + squares[tl]) / (double)n;
+		double stddev = Math.sqrt(Math.max(0, sq - mean * mean));
+		return (int)(mean * (1 + this.k * (stddev / r - 1)));
+	}
+}
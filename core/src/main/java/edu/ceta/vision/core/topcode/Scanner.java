@@ -1,6 +1,16 @@
 package edu.ceta.vision.core.topcode;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public abstract class Scanner {
 	
@@ -11,9 +21,154 @@ public abstract class Scanner {
    /** Total height of image */
    protected int h;
 
-   /** Holds processed binary pixel data */
+   /** Holds the input pixel data in packed RGB format (never modified) */
    protected int[] data;
 
+   /**
+    * 8-bit input, used instead of data when not null: one intensity
+    * byte per pixel, or interleaved color bytes (see channels)
+    */
+   protected byte[] luma;
+
+   /**
+    * 8-bit input read with absolute gets (direct or memory-mapped
+    * frames), used instead of data and luma when not null
+    */
+   protected ByteBuffer buffer;
+
+   /** Bytes per pixel of luma or buffer: 1 for intensities, 3+ for color */
+   protected int channels = 1;
+
+   /** Describes the ByteBuffer frames handed to scan() */
+   private FrameSource bufferFrame = new FrameSource();
+
+   /** Index of the first pixel of the scanned window in data or luma */
+   protected int offset;
+
+   /** Distance (in pixels) between the starts of two rows of the input */
+   protected int stride;
+
+   /** Binary (thresholded) plane: 0 for black, 1 for white pixels */
+   protected byte[] bin;
+
+   /**
+    * Candidate bullseye marks, one bit per pixel.  Each row starts on
+    * a fresh word (see cwords) so bands never share a word.
+    */
+   protected long[] cand;
+
+   /** Sensitivity factors the current image is thresholded with */
+   protected double[] factors;
+
+   /** Binary plane of each sensitivity factor (bin is one of them) */
+   protected byte[][] binPlanes;
+
+   /** Candidate marks of each sensitivity factor (cand is one of them) */
+   protected long[][] candPlanes;
+
+   /** Number of planes in use for the current image */
+   protected int planes;
+
+   /** Reused holder for single-factor scans */
+   private double[] single = new double[1];
+
+   /** Number of words of cand used by a single row */
+   protected int cwords;
+
+   /** Index of the current plane (the one bin and cand belong to) */
+   protected int plane;
+
+   /**
+    * Candidate centers (x) marked by the threshold stage, per plane and
+    * band, row after row.  Every center stands for the three pixels
+    * marked around it in cand.
+    */
+   private int[][][] candLists;
+
+   /** Number of entries of each list in candLists */
+   private int[][] candListSizes;
+
+   /** Number of candidate centers of every row, per plane */
+   private int[][] rowCands;
+
+   /** Number of bands and rows per band of the last threshold pass */
+   private int bands = 1, bandRows;
+
+   /**
+    * Runs of adjacent pixels that pass the candidate test: row, first
+    * and last column, and union-find parent of every run
+    */
+   protected int[] runRow, runX0, runX1, runParent;
+
+   /** Pixel count and coordinate sums of the cluster rooted at a run */
+   protected int[] runCount;
+   protected long[] runSumX, runSumY;
+
+   /** Number of runs in use */
+   protected int runs;
+
+   /** Spatial index of the topcodes found by the current scan */
+   protected TopCodeGrid grid = new TopCodeGrid();
+
+   /** Sampling steps of the decoder, cached by unit */
+   protected SampleOffsets offsets = new SampleOffsets();
+
+   /** Decode with TopCode's coarse-to-fine search */
+   protected boolean coarseDecode;
+
+   /** Fraction of the highest confidence that ends the coarse search */
+   protected float decodeStop = 0.9f;
+
+   /** Decode near the codes of the previous scan with their readings */
+   protected boolean warmStart;
+
+   /** Copies of the codes found by the previous scan, for warm starts */
+   protected TopCodeGrid warmGrid = new TopCodeGrid();
+   private List<TopCode> warmCodes = new ArrayList<TopCode>();
+   private List<TopCode> warmNear = new ArrayList<TopCode>();
+
+   /**
+    * Number of white pixels in the 3x3 neighborhood of every pixel,
+    * valid only when boxReady is true.
+    */
+   protected byte[] box;
+
+   /** True when box holds the 3x3 counts of the current binary plane */
+   protected boolean boxReady;
+
+   /** Plane the box counts were built for, or -1 */
+   private int boxPlane = -1;
+
+   /** Candidate count from which the 3x3 box plane is built */
+   protected int boxThreshold = 1500;
+
+   /** Column sums of three binary rows, used while building box */
+   private int[] colsum;
+
+   /** Decides the local threshold of every pixel */
+   protected ThresholdStrategy strategy = new WellnerThreshold();
+
+   /**
+    * Row buffers handed to the threshold strategy, one set per band:
+    * intensities, thresholds and the strategy's scratch row.
+    */
+   private int[][][] rowbufs;
+
+   /** Threshold task of every band, reused from one parallel pass to the next */
+   private BandTask[] bandTasks;
+
+   /** Results of the parallel threshold pass, one per band */
+   private List<Future<Integer>> bandResults = new ArrayList<Future<Integer>>();
+
+   /** Full resolution windows opened by the pyramid candidates */
+   private List<int[]> pyramidWindows = new ArrayList<int[]>();
+
+   /** Every window (x0, y0, x1, y1) allocated by the pyramid, reused in order */
+   private List<int[]> windowPool = new ArrayList<int[]>();
+
+   /** Reads the unit of the coarse candidates */
+   private TopCode pyramidProbe = new TopCode();
+
    /** Candidate code count */
    protected int ccount;
 
@@ -23,6 +178,65 @@ public abstract class Scanner {
    /** Maximum width of a TopCode unit in pixels */
    protected int maxu;
 
+   /** Minimum width of a TopCode unit in pixels (0 for no bound) */
+   protected int minu;
+
+   /** True once a maximum code diameter was set, bounding the unit search */
+   private boolean diameterSet;
+
+   /** ARGB binary view of the last scan, rendered on demand */
+   private int[] previewPixels;
+
+   /** True once previewPixels holds the current scan */
+   private boolean previewReady;
+
+   /** Row buffer used to convert the preview to RGBA */
+   private int[] previewRow;
+
+   /** Preview colors for black, white, black candidate and white candidate */
+   protected static final int[] PREVIEW_COLORS = { 
+	   0xFF000000, 0xFFFFFFFF, 0xFF000000, 0xFF00FF00 
+   };
+
+   /** Number of threads used by the adaptive threshold filter */
+   protected int threads = 1;
+
+   /** Worker threads for the parallel threshold filter */
+   private ExecutorService pool;
+
+   /** Bands shorter than this are not worth a thread */
+   protected static final int MIN_BAND_ROWS = 64;
+
+   /** Reuse the result list and topcodes from one scan to the next */
+   protected boolean recycle;
+
+   /** Every topcode handed out while recycling, reused in order */
+   private List<TopCode> topcodes = new ArrayList<TopCode>();
+
+   /** Number of entries of topcodes handed out by the current scan */
+   private int topcodesUsed;
+
+   /** Result list returned by every scan while recycling */
+   private List<TopCode> results = new ArrayList<TopCode>();
+
+   /** Decimation of the candidate search: 1 (off), 2 or 4 */
+   protected int pyramidScale = 1;
+
+   /** True when the current image was thresholded at the coarse level */
+   protected boolean pyramidActive;
+
+   /** Scans the decimated image and the full resolution windows */
+   private Scanner pyramid;
+
+   /** Decimated intensities of the current image */
+   private byte[] coarse;
+
+   /** Row buffers used while decimating */
+   private int[] rowLum, rowAcc;
+
+   /** Decimated images smaller than this (in pixels) are not worth it */
+   protected static final int MIN_PYRAMID_SIZE = 64;
+
 	   
 	   /**
 	    * Counts the number of vertical pixels from (x,y) until a color
@@ -64,8 +278,17 @@ public abstract class Scanner {
 	    * Binary (thresholded black/white) value for pixel (x,y)   
 	    */
 	   protected int getBW(int x, int y) {
-		   int pixel = data[y * w + x];
-		   return (pixel >> 24) & 0x01;
+		   return bin[y * w + x];
+	   }
+
+
+	   /**
+	    * Returns true if pixel (x,y) was marked as a candidate bullseye
+	    * center by the threshold filter.
+	    */
+	   protected boolean isCandidate(int x, int y) {
+		   if (x < 0 || x >= w || y < 0 || y >= h) return false;
+		   return (cand[y * cwords + (x >> 6)] & (1L << x)) != 0;
 	   }
 
 	      
@@ -75,18 +298,15 @@ public abstract class Scanner {
 	*/
 	  protected int getSample3x3(int x, int y) {
 	     if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
-	     int pixel, sum = 0;
-	     
-	     for (int j=y-1; j<=y+1; j++) {
-	        for (int i=x-1; i<=x+1; i++) {
-	           pixel = data[j * w + i];
-	           if ((pixel & 0x01000000) > 0) {
-	              sum += 0xff;
-	           }
-	        }
-	     }
+	     if (boxReady) return (box[y * w + x] * 0xff / 9);
+	     int k = (y - 1) * w + x;
+	     int sum = (bin[k-1] + bin[k] + bin[k+1]);
+	     k += w;
+	     sum += (bin[k-1] + bin[k] + bin[k+1]);
+	     k += w;
+	     sum += (bin[k-1] + bin[k] + bin[k+1]);
 	     //return (sum >= 5) ? 1 : 0;
-	     return (sum / 9);
+	     return (sum * 0xff / 9);
 	  }
 
 	      
@@ -96,23 +316,21 @@ public abstract class Scanner {
 	   */
 	  protected int getBW3x3(int x, int y) { 
 		  if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
-		  int pixel, sum = 0;
-	
-		  for (int j=y-1; j<=y+1; j++) {
-			  for (int i=x-1; i<=x+1; i++) {
-				  pixel = data[j * w + i];
-				  sum += ((pixel >> 24) & 0x01);
-			  }
-		  }
+		  if (boxReady) return (box[y * w + x] >= 5) ? 1 : 0;
+		  int k = (y - 1) * w + x;
+		  int sum = (bin[k-1] + bin[k] + bin[k+1]);
+		  k += w;
+		  sum += (bin[k-1] + bin[k] + bin[k+1]);
+		  k += w;
+		  sum += (bin[k-1] + bin[k] + bin[k+1]);
 		  return (sum >= 5) ? 1 : 0;
 	  }
 
 	  /**
-	   * Perform Wellner adaptive thresholding to produce binary pixel
-	   * data.  Also mark candidate spotcode locations.
-	   *
-	   * "Adaptive Thresholding for the DigitalDesk"   
-	   * EuroPARC Technical Report EPC-93-110
+	   * Perform adaptive thresholding to produce binary pixel data.
+	   * Also mark candidate spotcode locations.  The threshold of each
+	   * pixel is decided by the current ThresholdStrategy (Wellner's
+	   * filter unless changed with setThresholdStrategy).
 	   */
 	  protected void threshold() {
 		  threshold(0.85);
@@ -124,219 +342,1636 @@ public abstract class Scanner {
 	   * smarichal: Same function receiving the f value as a parameter
 	   */
 	  protected void threshold(double f) {
-	
-		  int pixel, r, g, b, a;
-		  int threshold, sum = 128;
-		  int s = 30;
-		  int k;
-		  int b1, w1, b2, level, dk;
-	
-		  this.ccount = 0;
-	
-		  for (int j=0; j<h; j++) {
-			  level = b1 = b2 = w1 = 0;
-	
-			  //----------------------------------------
-			  // Process rows back and forth (alternating
-			  // left-to-right, right-to-left)
-			  //----------------------------------------
-			  k = (j % 2 == 0) ? 0 : w-1;
-			  k += (j * w);
-	
-			  for (int i=0; i<w; i++) { 
-	
-				  //----------------------------------------
-				  // Calculate pixel intensity (0-255)
-				  //----------------------------------------
-				  pixel = data[k];
-				  r = (pixel >> 16) & 0xff;
-				  g = (pixel >> 8) & 0xff;
-				  b = pixel & 0xff;
-				  a = (r + g + b) / 3;
-				  //a = r;
-	
-				  //----------------------------------------
-				  // Calculate sum as an approximate sum
-				  // of the last s pixels
-				  //----------------------------------------
-				  sum += a - (sum / s);
-	
-				  //----------------------------------------
-				  // Factor in sum from the previous row
-				  //----------------------------------------
-				  if (k >= w) {
-					  threshold = (sum + (data[k-w] & 0xffffff)) / (2*s);
-				  } else {
-					  threshold = sum / s;
+		  single[0] = f;
+		  threshold(single);
+	  }
+
+
+	  /**
+	   * Thresholds the image with several sensitivity factors at once.
+	   * The local thresholds (the expensive part) are computed in a
+	   * single pass; each factor gets its own binary and candidate
+	   * plane, and findCodes() decodes and merges all of them.  This
+	   * catches markers in both bright and shadowed regions for about
+	   * the cost of one scan.
+	   */
+	  protected void threshold(double[] factors) {
+		  this.factors = factors;
+		  this.previewReady = false;
+		  this.pyramidActive = pyramidScale > 1 && 
+				  w / pyramidScale >= MIN_PYRAMID_SIZE && h / pyramidScale >= MIN_PYRAMID_SIZE;
+		  if (pyramidActive) {
+			  thresholdCoarse();
+			  return;
+		  }
+		  int bands = getThresholdBands();
+		  beginThreshold(bands);
+		  if (bands > 1) {
+			  thresholdParallel(bands);
+		  } else {
+			  this.ccount = thresholdRows(0, h);
+		  }
+		  this.boxPlane = -1;
+		  selectPlane(0);
+	  }
+
+
+	  /**
+	   * Gets the planes and the strategy ready for a threshold pass over
+	   * the current image split into the given number of bands.
+	   */
+	  protected void beginThreshold(int bands) {
+		  this.bands = bands;
+		  this.bandRows = Math.max(1, h / bands);
+		  allocatePlanes(bands);
+		  strategy.prepare(this);
+	  }
+
+
+	  /**
+	   * Thresholds rows [from, to) with the current strategy on the
+	   * calling thread.  Returns the number of candidate pixels marked.
+	   */
+	  protected int thresholdRows(int from, int to) {
+		  int[][] buf = rowbufs[0];
+		  return strategy.threshold(this, from, to, buf[0], buf[1], buf[2]);
+	  }
+
+
+	  /**
+	   * Pyramid mode, first step: averages pyramidScale x pyramidScale 
+	   * blocks of the input into a decimated image and thresholds it to
+	   * find bullseye candidates cheaply.  The full resolution planes are
+	   * left white; findCodes() fills in the windows it refines.
+	   */
+	  protected void thresholdCoarse() {
+		  int s = pyramidScale;
+		  int cw = w / s, ch = h / s;
+		  if (coarse == null || coarse.length < cw * ch) {
+			  this.coarse = new byte[cw * ch];
+		  }
+		  if (rowLum == null || rowLum.length < w) {
+			  this.rowLum = new int[w];
+			  this.rowAcc = new int[w];
+		  }
+		  int area = s * s;
+		  for (int y=0; y<ch; y++) {
+			  java.util.Arrays.fill(rowAcc, 0, cw, 0);
+			  for (int r=0; r<s; r++) {
+				  readIntensities(y * s + r, rowLum);
+				  for (int x=0, k=0; x<cw; x++) {
+					  for (int q=0; q<s; q++) rowAcc[x] += rowLum[k++];
 				  }
-	
-				  //----------------------------------------
-				  // Compare the average sum to current pixel
-				  // to decide black or white
-				  //----------------------------------------
-//				  double f = 0.85;
-////				  f = 0.975;
-				  a = (a < threshold * f)? 0 : 1;
-	
-				  //----------------------------------------
-				  // Repack pixel data with binary data in 
-				  // the alpha channel, and the running sum
-				  // for this pixel in the RGB channels
-				  //----------------------------------------
-				  data[k] = (a << 24) + (sum & 0xffffff);
-	
-				  switch (level) {
-	
-				  // On a white region. No black pixels yet
-				  case 0:
-					  if (a == 0) {  // First black encountered
-						  level = 1;
-						  b1 = 1;
-						  w1 = 0;
-						  b2 = 0;
-					  }
-					  break;
-	
-					  // On first black region
-				  case 1:
-					  if (a == 0) {
-						  b1++;
-					  } else {
-						  level = 2;
-						  w1 = 1;
-					  }
-					  break;
-	
-					  // On second white region (bulls-eye of a code?)
-				  case 2:
-					  if (a == 0) {
-						  level = 3;
-						  b2 = 1;
-					  } else {
-						  w1++;
-					  }
-					  break;
-	
-					  // On second black region
-				  case 3:
-					  if (a == 0) {
-						  b2++;
-					  }
-					  // This could be a top code
-					  else {
-						  int mask;
-						  if (b1 >= 2 && b2 >= 2 &&  // less than 2 pixels... not interested
-								  b1 <= maxu && b2 <= maxu && w1 <= (maxu + maxu) &&
-								  Math.abs(b1 + b2 - w1) <= (b1 + b2) &&
-								  Math.abs(b1 + b2 - w1) <= w1 &&
-								  Math.abs(b1 - b2) <= b1 &&
-								  Math.abs(b1 - b2) <= b2) {
-							  mask = 0x2000000;
-	
-							  dk = 1 + b2 + w1/2;
-							  if (j % 2 == 0) {
-								  dk = k - dk; 
-							  } else {
-								  dk = k + dk;
+			  }
+			  for (int x=0, k=y*cw; x<cw; x++) {
+				  coarse[k++] = (byte)(rowAcc[x] / area);
+			  }
+		  }
+
+		  Scanner p = getPyramidScanner();
+		  p.maxu = (maxu + s - 1) / s;
+		  p.minu = minu / s;
+		  p.diameterSet = diameterSet;
+		  p.setLumaInput(coarse, 0, cw, ch, cw);
+		  p.threshold(factors);
+
+		  allocatePlanes(1);
+		  for (int q=0; q<planes; q++) {
+			  java.util.Arrays.fill(binPlanes[q], 0, w * h, (byte)1);
+		  }
+		  this.ccount = p.ccount;
+		  this.boxPlane = -1;
+		  this.boxReady = false;
+		  this.bin = binPlanes[0];
+		  this.cand = candPlanes[0];
+	  }
+
+
+	  /**
+	   * Pyramid mode, second step: every coarse candidate that passes the
+	   * neighbour test opens a full resolution window sized from the unit
+	   * read at the coarse level.  Overlapping windows are merged, then
+	   * each one is thresholded and decoded at full resolution and its
+	   * planes are copied into this scanner's planes.
+	   */
+	  protected List<TopCode> findCodesPyramid() {
+		  Scanner p = pyramid;
+		  int s = pyramidScale;
+		  List<int[]> windows = pyramidWindows;
+		  TopCode probe = pyramidProbe;
+		  int used = 0;
+		  windows.clear();
+		  for (int q=0; q<p.planes; q++) {
+			  p.selectPlane(q);
+			  for (int j=2; j<p.h-2; j++) {
+				  for (int c=0; c<p.cwords; c++) {
+					  long bits = p.cand[j * p.cwords + c];
+					  while (bits != 0) {
+						  int i = (c << 6) + Long.numberOfTrailingZeros(bits);
+						  bits &= bits - 1;
+						  if (p.isCandidate(i-1, j) && p.isCandidate(i+1, j) &&
+								  p.isCandidate(i, j-1) && p.isCandidate(i, j+1)) {
+							  int x = i * s + s / 2, y = j * s + s / 2;
+							  probe.setLocation(i, j);
+							  float u = probe.readUnit(p);
+							  
+							  //----------------------------------------
+							  // A symbol diameter (8 units) around the
+							  // center: half the symbol plus as much
+							  // again for the threshold filter to
+							  // settle.  Fall back to the largest
+							  // symbol when the unit can't be read at
+							  // the coarse level
+							  //----------------------------------------
+							  int r = (int)Math.ceil(((u > 0) ? u * s : maxu) * 8) + 2 * s;
+							  if (used == windowPool.size()) windowPool.add(new int[4]);
+							  int[] win = windowPool.get(used);
+							  win[0] = Math.max(0, x - r);
+							  win[1] = Math.max(0, y - r);
+							  win[2] = Math.min(w, x + r + 1);
+							  win[3] = Math.min(h, y + r + 1);
+							  
+							  // skip the bullseye's other candidates, but
+							  // not a symbol reaching past the windows
+							  if (!inWindow(windows, win)) {
+								  windows.add(win);
+								  used++;
 							  }
-	
-							  data[dk - 1] |= mask;
-							  data[dk] |= mask;
-							  data[dk + 1] |= mask;
-							  ccount += 3;  // count candidate codes
 						  }
-						  b1 = b2;
-						  w1 = 1;
-						  b2 = 0;
-						  level = 2;
 					  }
-					  break;
 				  }
-	
-	
-				  k += (j % 2 == 0) ? 1 : -1;
 			  }
 		  }
-	  }
-	
-	  /**
-	   * Scan the image line by line looking for TopCodes   
-	   */
-	  protected List<TopCode> findCodes() {
+		  mergeWindows(windows);
+
+		  List<TopCode> spots = newResultList();
+		  grid.reset(0, 0, w, h, getGridCellSize());
+		  p.maxu = maxu;
+		  p.minu = minu;
 		  this.tcount = 0;
-		  List<TopCode> spots = new java.util.ArrayList<TopCode>();
-	
-		  TopCode spot = new TopCode();
-		  int k = w * 2;
-		  for (int j=2; j<h-2; j++) {
-			  for (int i=0; i<w; i++) {
-				  if ((data[k] & 0x2000000) > 0) {
-					  if ((data[k-1] & 0x2000000) > 0 &&
-							  (data[k+1] & 0x2000000) > 0 &&
-							  (data[k-w] & 0x2000000) > 0 &&
-							  (data[k+w] & 0x2000000) > 0) {
-						  /*
-	                 if ((data[k-w] & 0x2000000) > 0 ||
-	                     (data[k+w] & 0x2000000) > 0)) {
-						   */                    
-						  if (!overlaps(spots, i, j)) {
-							  this.tcount++;
-							  spot.decode(this, i, j);
-							  if (spot.isValid()) {
-								  spots.add(spot);
-								  spot = new TopCode();
-							  }
+		  for (int[] win : windows) {
+			  int ww = win[2] - win[0], wh = win[3] - win[1];
+			  if (ww < 8 || wh < 8) continue;
+			  int start = offset + win[1] * stride + win[0] * channels;
+			  if (buffer != null) {
+				  p.setBufferInput(buffer, start, ww, wh, stride, channels);
+			  } else if (luma != null) {
+				  p.setByteInput(luma, start, ww, wh, stride, channels);
+			  } else {
+				  p.setRGBInput(data, start, ww, wh, stride);
+			  }
+			  p.threshold(factors);
+			  for (TopCode spot : p.findCodes()) {
+				  spot.setLocation(spot.getCenterX() + win[0], spot.getCenterY() + win[1]);
+				  if (!overlaps(spots, (int)spot.getCenterX(), (int)spot.getCenterY())) {
+					  addSpot(spots, spot);
+				  }
+			  }
+			  this.tcount += p.tcount;
+			  for (int q=0; q<planes; q++) {
+				  for (int j=0; j<wh; j++) {
+					  System.arraycopy(p.binPlanes[q], j * ww, binPlanes[q], (win[1] + j) * w + win[0], ww);
+					  for (int i=0; i<ww; i++) {
+						  long[] pc = p.candPlanes[q];
+						  if ((pc[j * p.cwords + (i >> 6)] & (1L << i)) != 0) {
+							  int x = win[0] + i;
+							  candPlanes[q][(win[1] + j) * cwords + (x >> 6)] |= 1L << x;
 						  }
 					  }
 				  }
-				  k++;
 			  }
 		  }
-	
+		  selectPlane(0);
+		  this.previewReady = false;   // windows copied into the planes
 		  return spots;
 	  }
 
+
 	  /**
-	   * Returns true if point (x,y) is in an existing TopCode bullseye   
+	   * Returns true if one of the windows holds the whole of window b
 	   */
-	  protected boolean overlaps(List<TopCode> spots, int x, int y) {
-		  for (TopCode top : spots) {
-			  if (top.inBullsEye(x, y)) return true;
+	  private static boolean inWindow(List<int[]> windows, int[] b) {
+		  for (int[] a : windows) {
+			  if (b[0] >= a[0] && b[1] >= a[1] && b[2] <= a[2] && b[3] <= a[3]) return true;
 		  }
 		  return false;
 	  }
+
+
+	  /**
+	   * Merges overlapping windows (x0, y0, x1, y1) until none overlap
+	   */
+	  private static void mergeWindows(List<int[]> windows) {
+		  boolean merged = true;
+		  while (merged) {
+			  merged = false;
+			  for (int i=0; i<windows.size() && !merged; i++) {
+				  int[] a = windows.get(i);
+				  for (int j=i+1; j<windows.size(); j++) {
+					  int[] b = windows.get(j);
+					  if (a[0] < b[2] && b[0] < a[2] && a[1] < b[3] && b[1] < a[3]) {
+						  a[0] = Math.min(a[0], b[0]);
+						  a[1] = Math.min(a[1], b[1]);
+						  a[2] = Math.max(a[2], b[2]);
+						  a[3] = Math.max(a[3], b[3]);
+						  windows.remove(j);
+						  merged = true;
+						  break;
+					  }
+				  }
+			  }
+		  }
+	  }
+
+
+	  /**
+	   * Lazily creates the scanner used for the pyramid levels.  It shares
+	   * this scanner's threshold settings and worker threads.
+	   */
+	  private Scanner getPyramidScanner() {
+		  if (pyramid == null) {
+			  this.pyramid = new Scanner() { };
+		  }
+		  pyramid.strategy = strategy;
+		  pyramid.boxThreshold = boxThreshold;
+		  pyramid.threads = threads;
+		  pyramid.pool = (threads > 1) ? getThresholdPool() : null;
+		  return pyramid;
+	  }
+
+
+	  /**
+	   * Makes the binary and candidate planes of the given sensitivity
+	   * factor the current ones, used by findCodes() and decoding.
+	   */
+	  protected void selectPlane(int p) {
+		  this.plane = p;
+		  this.bin = binPlanes[p];
+		  this.cand = candPlanes[p];
+		  if (boxPlane == p) return;
 	
-	
+		  //----------------------------------------
+		  // With many candidates decoding dominates,
+		  // so precompute the 3x3 sample sums once
+		  //----------------------------------------
+		  this.boxReady = false;
+		  this.boxPlane = -1;
+		  if (ccount / planes >= boxThreshold) {
+			  buildBoxPlane();
+			  this.boxPlane = p;
+		  }
+	  }
+
+
 	  /**
-	   * Returns the number of candidate topcodes found during a scan
+	   * Counts the white pixels in the 3x3 neighborhood of every interior
+	   * pixel of the binary plane, so that getBW3x3 and getSample3x3
+	   * become a single array read.  The filter is separable: three rows
+	   * are summed per column, then three column sums per pixel.
 	   */
-	  public int getCandidateCount() {
-		  return this.ccount;
+	  protected void buildBoxPlane() {
+		  if (box == null || box.length < w * h) {
+			  this.box = new byte[w * h];
+		  }
+		  if (colsum == null || colsum.length < w) {
+			  this.colsum = new int[w];
+		  }
+		  int k;
+		  for (int j=1; j<h-1; j++) {
+			  k = (j - 1) * w;
+			  for (int i=0; i<w; i++) {
+				  colsum[i] = bin[k] + bin[k + w] + bin[k + w + w];
+				  k++;
+			  }
+			  k = j * w + 1;
+			  for (int i=1; i<w-1; i++) {
+				  box[k++] = (byte)(colsum[i-1] + colsum[i] + colsum[i+1]);
+			  }
+		  }
+		  this.boxReady = true;
+	  }
+
+
+	  /**
+	   * Makes sure the binary and candidate planes and the strategy's
+	   * row buffers can hold the current image.  Buffers are reused from
+	   * one scan to the next whenever they are large enough.
+	   */
+	  protected void allocatePlanes(int bands) {
+		  int h = getPlaneRows();
+		  this.cwords = (w + 63) >> 6;
+		  this.planes = factors.length;
+		  if (binPlanes == null || binPlanes.length < planes) {
+			  this.binPlanes = new byte[planes][];
+			  this.candPlanes = new long[planes][];
+		  }
+		  for (int p=0; p<planes; p++) {
+			  if (binPlanes[p] == null || binPlanes[p].length < w * h) {
+				  binPlanes[p] = new byte[w * h];
+			  }
+			  if (candPlanes[p] == null || candPlanes[p].length < cwords * h) {
+				  candPlanes[p] = new long[cwords * h];
+			  } else {
+				  java.util.Arrays.fill(candPlanes[p], 0, cwords * h, 0L);
+			  }
+		  }
+		  if (candLists == null || candLists.length < planes || candLists[0].length < bands) {
+			  int np = Math.max(planes, (candLists == null) ? 0 : candLists.length);
+			  this.candLists = new int[np][bands][];
+			  this.candListSizes = new int[np][bands];
+			  this.rowCands = new int[np][];
+		  }
+		  for (int p=0; p<planes; p++) {
+			  if (rowCands[p] == null || rowCands[p].length < h) {
+				  rowCands[p] = new int[h];
+			  }
+		  }
+		  clearCandidateLists();
+		  if (rowbufs == null || rowbufs.length < bands) {
+			  this.rowbufs = new int[bands][][];
+		  }
+		  for (int b=0; b<bands; b++) {
+			  if (rowbufs[b] == null || rowbufs[b][0].length < w) {
+				  rowbufs[b] = new int[3][w];
+			  }
+		  }
+		  if (bandTasks == null || bandTasks.length < bands) {
+			  this.bandTasks = new BandTask[bands];
+			  for (int b=0; b<bands; b++) {
+				  bandTasks[b] = new BandTask();
+			  }
+		  }
+	  }
+
+
+	  /**
+	   * Empties the lists of candidate centers of every plane.
+	   */
+	  protected void clearCandidateLists() {
+		  for (int p=0; p<planes; p++) {
+			  java.util.Arrays.fill(candListSizes[p], 0);
+		  }
+	  }
+
+
+	  /**
+	   * Number of rows the binary and candidate planes hold: the whole
+	   * image, unless a subclass keeps a ring of rows (see planeRow).
+	   */
+	  protected int getPlaneRows() {
+		  return h;
+	  }
+
+
+	  /**
+	   * Row of the binary and candidate planes that holds image row j.
+	   */
+	  protected int planeRow(int j) {
+		  return j;
+	  }
+
+
+	  /**
+	   * Number of horizontal bands the threshold filter is split into.
+	   * Small images are not worth splitting.
+	   */
+	  protected int getThresholdBands() {
+		  if (threads <= 1) return 1;
+		  return Math.max(1, Math.min(threads, h / MIN_BAND_ROWS));
 	  }
+
+
+	  /**
+	   * Splits the image into horizontal bands and thresholds them on
+	   * the thread pool.  Strategies that carry state from row to row
+	   * (like Wellner's running sum) warm up on a few rows above each
+	   * band.
+	   */
+	  protected void thresholdParallel(int bands) {
+		  List<Future<Integer>> results = bandResults;
+		  ExecutorService executor = getThresholdPool();
+		  int rows = h / bands;
+		  int first = 0;
+		  int count;
 	
+		  results.clear();
+		  for (int b=0; b<bands; b++) {
+			  BandTask task = bandTasks[b];
+			  task.from = first;
+			  task.to = (b == bands - 1) ? h : first + rows;
+			  task.buf = rowbufs[b];
+			  first = task.to;
+			  results.add(executor.submit(task));
+		  }
 	
+		  count = 0;
+		  try {
+			  for (Future<Integer> result : results) {
+				  count += result.get().intValue();
+			  }
+		  } catch (InterruptedException e) {
+			  Thread.currentThread().interrupt();
+			  throw new RuntimeException("Interrupted while thresholding image", e);
+		  } catch (ExecutionException e) {
+			  throw new RuntimeException("Threshold band failed", e.getCause());
+		  } finally {
+			  results.clear();
+		  }
+		  this.ccount = count;
+	  }
+
+
 	  /**
-	   * Returns the number of topcodes tested during a scan
+	   * Thresholds the rows [from, to) of one band with the band's row
+	   * buffers.
 	   */
-	  public int getTestedCount() {
-		  return this.tcount;
+	  private class BandTask implements Callable<Integer> {
+		  int from, to;
+		  int[][] buf;
+
+		  public Integer call() {
+			  return Integer.valueOf(strategy.threshold(Scanner.this, from, to, buf[0], buf[1], buf[2]));
+		  }
 	  }
 
 
-	         
-	 /**
-	  * Sets the maximum allowable diameter (in pixels) for a TopCode
-	  * identified by the scanner.  Setting this to a reasonable value for
-	  * your application will reduce false positives (recognizing codes that
-	  * aren't actually there) and improve performance (because fewer
-	  * candidate codes will be tested).  Setting this value to as low as 50
-	  * or 60 pixels could be advisable for some applications.  However,
-	  * setting the maximum diameter too low will prevent valid codes from
-	  * being recognized.  The default value is 640 pixels.
-	  */
-	 public void setMaxCodeDiameter(int diameter) {
-		 float f = diameter / 8.0f;
-		 this.maxu = (int)Math.ceil(f);
+	  /**
+	   * Writes row j of the binary planes, comparing the intensity of each
+	   * pixel with its local threshold scaled by each sensitivity factor,
+	   * and marks bullseye candidates along the row.  Called by threshold
+	   * strategies, possibly from several threads at once for different
+	   * rows.  Returns the number of candidate pixels marked.
+	   *
+	   * @param j row to write
+	   * @param lum intensity of every column of the row
+	   * @param thresh local threshold of every column of the row
+	   */
+	  public int binarizeRow(int j, int[] lum, int[] thresh) {
+		  int count = 0;
+		  for (int p=0; p<planes; p++) {
+			  count += binarizeRow(j, lum, thresh, p);
+		  }
+		  return count;
+	  }
+
+
+	  /**
+	   * Binarizes row j with the sensitivity factor of plane p into that
+	   * plane.  Rows are walked back and forth (even rows left-to-right)
+	   * as in the original Wellner filter.  The center of every candidate
+	   * is also appended to the list of the row's band, so findCodes()
+	   * does not have to sweep the candidate plane.
+	   */
+	  protected int binarizeRow(int j, int[] lum, int[] thresh, int p) {
+		  double f = factors[p];
+		  byte[] bin = binPlanes[p];
+		  long[] cand = candPlanes[p];
+		  int band = Math.min(j / bandRows, bands - 1);
+		  int[] list = candLists[p][band];
+		  int size = candListSizes[p][band];
+		  int start = size;
+		  int a;
+		  int b1, w1, b2, level, dk;
+		  int count = 0;
+		  int dx = (j % 2 == 0) ? 1 : -1;
+		  int x = (j % 2 == 0) ? 0 : w-1;
+		  int pr = planeRow(j);
+		  int k = x + (pr * w);
+		  int row = pr * cwords;
+	
+		  level = b1 = b2 = w1 = 0;
+	
+		  for (int i=0; i<w; i++) { 
+	
+			  //----------------------------------------
+			  // Compare the local threshold to current
+			  // pixel to decide black or white
+			  //----------------------------------------
+//				  double f = 0.85;
+////				  f = 0.975;
+			  a = (lum[x] < thresh[x] * f)? 0 : 1;
+	
+			  bin[k] = (byte)a;
+	
+			  switch (level) {
+	
+			  // On a white region. No black pixels yet
+			  case 0:
+				  if (a == 0) {  // First black encountered
+					  level = 1;
+					  b1 = 1;
+					  w1 = 0;
+					  b2 = 0;
+				  }
+				  break;
+	
+				  // On first black region
+			  case 1:
+				  if (a == 0) {
+					  b1++;
+				  } else {
+					  level = 2;
+					  w1 = 1;
+				  }
+				  break;
+	
+				  // On second white region (bulls-eye of a code?)
+			  case 2:
+				  if (a == 0) {
+					  level = 3;
+					  b2 = 1;
+				  } else {
+					  w1++;
+				  }
+				  break;
+	
+				  // On second black region
+			  case 3:
+				  if (a == 0) {
+					  b2++;
+				  }
+				  // This could be a top code
+				  else {
+					  if (isBullsEye(b1, w1, b2)) {
+						  dk = 1 + b2 + w1/2;
+						  if (j % 2 == 0) {
+							  dk = x - dk; 
+						  } else {
+							  dk = x + dk;
+						  }
+	
+						  cand[row + ((dk - 1) >> 6)] |= (1L << (dk - 1));
+						  cand[row + (dk >> 6)] |= (1L << dk);
+						  cand[row + ((dk + 1) >> 6)] |= (1L << (dk + 1));
+						  count += 3;  // count candidate codes
+						  
+						  if (list == null || size == list.length) {
+							  list = growList(list);
+							  candLists[p][band] = list;
+						  }
+						  list[size++] = dk;
+					  }
+					  b1 = b2;
+					  w1 = 1;
+					  b2 = 0;
+					  level = 2;
+				  }
+				  break;
+			  }
+	
+	
+			  k += dx;
+			  x += dx;
+		  }
+		  
+		  // keep every row's centers left to right
+		  if (j % 2 != 0) {
+			  for (int l=start, r=size-1; l<r; l++, r--) {
+				  int t = list[l];
+				  list[l] = list[r];
+				  list[r] = t;
+			  }
+		  }
+		  candListSizes[p][band] = size;
+		  rowCands[p][pr] = size - start;
+		  return count;
+	  }
+
+
+	  /**
+	   * Black/white/black run lengths that could cross the bullseye of a
+	   * code within the configured diameter range: both black rings about
+	   * as wide as each other, and the white center about as wide as both
+	   * together.
+	   */
+	  protected boolean isBullsEye(int b1, int w1, int b2) {
+		  return (b1 >= 2 && b2 >= 2 &&  // less than 2 pixels... not interested
+				  b1 >= minu && b2 >= minu &&
+				  b1 <= maxu && b2 <= maxu && w1 <= (maxu + maxu) &&
+				  Math.abs(b1 + b2 - w1) <= (b1 + b2) &&
+				  Math.abs(b1 + b2 - w1) <= w1 &&
+				  Math.abs(b1 - b2) <= b1 &&
+				  Math.abs(b1 - b2) <= b2);
+	  }
+
+
+	  /**
+	   * Applies the threshold filter's run ratio test to the column
+	   * through (x,y): the white run holding the center and the black
+	   * runs above and below it must also look like a bullseye.
+	   * Horizontal stripes (table edges, text, shadows) pass the row
+	   * test but fail this one, so they are dropped before decoding.
+	   * The runs are taken from the 3x3 majority of the binary image, as
+	   * the decoder samples it, so a stray pixel in the column doesn't
+	   * cut a run short.
+	   */
+	  protected boolean isVerticalBullsEye(int x, int y) {
+		  if (x < 0 || x >= w || y < 0 || y >= h) return false;
+		  if (getBW3x3(x, y) == 0) return false;
+		  int up = verticalRun(x, y - 1, -1, 1, maxu + maxu);
+		  int down = verticalRun(x, y + 1, 1, 1, maxu + maxu);
+		  int w1 = 1 + up + down;
+		  if (w1 > maxu + maxu) return false;
+		  int top = y - 1 - up;
+		  int bottom = y + 1 + down;
+		  int b1 = verticalRun(x, top, -1, 0, maxu + 1);
+		  int b2 = verticalRun(x, bottom, 1, 0, maxu + 1);
+		  return isBullsEye(b1, w1, b2);
+	  }
+
+
+	  /**
+	   * Counts the pixels of color a (0 black, 1 white) in the 3x3 
+	   * majority of the column starting at (x,y) and moving d rows at a
+	   * time, up to limit.
+	   */
+	  private int verticalRun(int x, int y, int d, int a, int limit) {
+		  int n = 0;
+		  for (; y >= 0 && y < h && n < limit && getBW3x3(x, y) == a; y += d) {
+			  n++;
+		  }
+		  return n;
+	  }
+
+
+	  private int[] growList(int[] list) {
+		  if (list == null) return new int[256];
+		  int[] grown = new int[list.length * 2];
+		  System.arraycopy(list, 0, grown, 0, list.length);
+		  return grown;
+	  }
+	
+	  /**
+	   * Calculates the intensity (0-255) of every pixel in row j.  8-bit
+	   * luma input is used as is; color bytes and packed RGB input are
+	   * averaged.  Used by threshold strategies, possibly from several
+	   * threads at once.
+	   */
+	  public void readIntensities(int j, int[] lum) {
+		  if (luma != null && channels == 1) {
+			  int k = offset + j * stride;
+			  for (int i=0; i<w; i++) {
+				  lum[i] = luma[k++] & 0xff;
+			  }
+		  } else if (luma != null) {
+			  int k = offset + j * stride;
+			  for (int i=0; i<w; i++) {
+				  lum[i] = ((luma[k] & 0xff) + (luma[k+1] & 0xff) + (luma[k+2] & 0xff)) / 3;
+				  k += channels;
+			  }
+		  } else if (buffer != null) {
+			  int k = offset + j * stride;
+			  if (channels == 1) {
+				  for (int i=0; i<w; i++) {
+					  lum[i] = buffer.get(k++) & 0xff;
+				  }
+			  } else {
+				  for (int i=0; i<w; i++) {
+					  lum[i] = ((buffer.get(k) & 0xff) + (buffer.get(k+1) & 0xff) + 
+							  (buffer.get(k+2) & 0xff)) / 3;
+					  k += channels;
+				  }
+			  }
+		  } else {
+			  int pixel, r, g, b;
+			  int k = offset + j * stride;
+			  for (int i=0; i<w; i++) {
+				  pixel = data[k++];
+				  r = (pixel >> 16) & 0xff;
+				  g = (pixel >> 8) & 0xff;
+				  b = pixel & 0xff;
+				  lum[i] = (r + g + b) / 3;
+				  //lum[i] = r;
+			  }
+		  }
+	  }
+
+
+	  /**
+	   * Scan an 8-bit intensity image (a grayscale frame or the Y plane
+	   * of a YUV frame) and return a list of all topcodes found in it.
+	   * The buffer is only read, never modified.
+	   *
+	   * @param luma one intensity byte per pixel
+	   * @param width width of the image
+	   * @param height height of the image
+	   * @param stride distance in bytes between the starts of two rows
+	   */
+	  public List<TopCode> scan(byte[] luma, int width, int height, int stride) {
+		  setLumaInput(luma, 0, width, height, stride);
+		  imageChanged();
+		  threshold();          // run the adaptive threshold filter
+		  return findCodes();   // scan for topcodes
+	  }
+
+
+	  /**
+	   * Same as scan(luma, width, height, stride) with the given
+	   * sensitivity factor for the adaptive threshold filter.
+	   */
+	  public List<TopCode> scan(byte[] luma, int width, int height, int stride, double f) {
+		  setLumaInput(luma, 0, width, height, stride);
+		  imageChanged();
+		  threshold(f);         // run the adaptive threshold filter
+		  return findCodes();   // scan for topcodes
+	  }
+
+
+	  /**
+	   * Same as scan(luma, width, height, stride) thresholding the image
+	   * with several sensitivity factors in a single pass.  Markers found
+	   * with any of the factors are merged into one list.
+	   */
+	  public List<TopCode> scan(byte[] luma, int width, int height, int stride, double[] factors) {
+		  setLumaInput(luma, 0, width, height, stride);
+		  imageChanged();
+		  threshold(factors);   // run the adaptive threshold filter
+		  return findCodes();   // scan for topcodes
+	  }
+
+
+	  /**
+	   * Scan a rectangular window of a larger 8-bit intensity frame in
+	   * place, without copying it.  The window starts at pixel offset of
+	   * the buffer (offset = y * stride + x for a window at (x,y)).
+	   *
+	   * @param luma one intensity byte per pixel
+	   * @param offset index of the window's top-left pixel
+	   * @param width width of the window
+	   * @param height height of the window
+	   * @param stride distance in bytes between the starts of two rows
+	   * @param frameCoordinates if true the topcodes are located in the 
+	   *                         coordinates of the whole frame, otherwise
+	   *                         relative to the window
+	   */
+	  public List<TopCode> scan(byte[] luma, int offset, int width, int height, int stride, 
+			  boolean frameCoordinates) {
+		  setLumaInput(luma, offset, width, height, stride);
+		  imageChanged();
+		  threshold();          // run the adaptive threshold filter
+		  return toFrameCoordinates(findCodes(), frameCoordinates);
+	  }
+
+
+	  /**
+	   * Same as scan(luma, offset, width, height, stride, frameCoordinates)
+	   * thresholding with several sensitivity factors in a single pass.
+	   */
+	  public List<TopCode> scan(byte[] luma, int offset, int width, int height, int stride, 
+			  double[] factors, boolean frameCoordinates) {
+		  setLumaInput(luma, offset, width, height, stride);
+		  imageChanged();
+		  threshold(factors);   // run the adaptive threshold filter
+		  return toFrameCoordinates(findCodes(), frameCoordinates);
+	  }
+
+
+	  /**
+	   * Scan a rectangular window of a larger packed RGB frame in place,
+	   * without copying it.  See scan(byte[], int, int, int, int, boolean).
+	   */
+	  public List<TopCode> scan(int[] rgb, int offset, int width, int height, int stride, 
+			  boolean frameCoordinates) {
+		  setRGBInput(rgb, offset, width, height, stride);
+		  imageChanged();
+		  threshold();          // run the adaptive threshold filter
+		  return toFrameCoordinates(findCodes(), frameCoordinates);
+	  }
+
+
+	  /**
+	   * Same as scan(rgb, offset, width, height, stride, frameCoordinates)
+	   * thresholding with several sensitivity factors in a single pass.
+	   */
+	  public List<TopCode> scan(int[] rgb, int offset, int width, int height, int stride, 
+			  double[] factors, boolean frameCoordinates) {
+		  setRGBInput(rgb, offset, width, height, stride);
+		  imageChanged();
+		  threshold(factors);   // run the adaptive threshold filter
+		  return toFrameCoordinates(findCodes(), frameCoordinates);
+	  }
+
+
+	  /**
+	   * Scan a frame held in a ByteBuffer (direct, memory-mapped or heap)
+	   * without copying it onto the Java heap.  Pixel (0,0) starts at the
+	   * buffer's position; neither position nor limit is changed.
+	   *
+	   * @param frame the frame bytes
+	   * @param width width of the frame
+	   * @param height height of the frame
+	   * @param stride distance in bytes between the starts of two rows
+	   * @param format byte layout of the pixels
+	   */
+	  public List<TopCode> scan(ByteBuffer frame, int width, int height, int stride, PixelFormat format) {
+		  return scan(frame, width, height, stride, format, null);
+	  }
+
+
+	  /**
+	   * Same as scan(frame, width, height, stride, format) thresholding
+	   * with several sensitivity factors (null for the default one).
+	   */
+	  public List<TopCode> scan(ByteBuffer frame, int width, int height, int stride, PixelFormat format, 
+			  double[] factors) {
+		  bufferFrame.set(frame, frame.position(), width, height, stride, format);
+		  return scan(bufferFrame, 0, 0, width, height, factors, false);
+	  }
+
+
+	  /**
+	   * Scan a frame described by a FrameSource (any PixelFormat and row
+	   * stride) in place, and return a list of all topcodes found in it.
+	   */
+	  public List<TopCode> scan(FrameSource frame) {
+		  return scan(frame, 0, 0, frame.getWidth(), frame.getHeight(), null, false);
+	  }
+
+
+	  /**
+	   * Same as scan(frame) thresholding with several sensitivity factors
+	   * in a single pass.
+	   */
+	  public List<TopCode> scan(FrameSource frame, double[] factors) {
+		  return scan(frame, 0, 0, frame.getWidth(), frame.getHeight(), factors, false);
+	  }
+
+
+	  /**
+	   * Scan the window (x, y, width, height) of a frame in place.
+	   *
+	   * @param frame the frame to read
+	   * @param factors sensitivity factors, or null for the default one
+	   * @param frameCoordinates if true the topcodes are located in the 
+	   *                         coordinates of the whole frame, otherwise
+	   *                         relative to the window
+	   */
+	  public List<TopCode> scan(FrameSource frame, int x, int y, int width, int height, 
+			  double[] factors, boolean frameCoordinates) {
+		  setFrameInput(frame, x, y, width, height);
+		  imageChanged();
+		  if (factors == null) {
+			  threshold();       // run the adaptive threshold filter
+		  } else {
+			  threshold(factors);
+		  }
+		  List<TopCode> spots = findCodes();
+		  if (frameCoordinates && (x != 0 || y != 0)) {
+			  for (TopCode spot : spots) {
+				  spot.setLocation(spot.getCenterX() + x, spot.getCenterY() + y);
+			  }
+		  }
+		  return spots;
+	  }
+
+
+	  /**
+	   * Moves the given topcodes from window to frame coordinates if
+	   * asked to.  The window origin is derived from offset and stride.
+	   */
+	  protected List<TopCode> toFrameCoordinates(List<TopCode> spots, boolean frameCoordinates) {
+		  if (frameCoordinates && offset != 0) {
+			  int x0 = (offset % stride) / channels;
+			  int y0 = offset / stride;
+			  for (TopCode spot : spots) {
+				  spot.setLocation(spot.getCenterX() + x0, spot.getCenterY() + y0);
+			  }
+		  }
+		  return spots;
+	  }
+
+
+	  /**
+	   * Makes the given window of an 8-bit intensity buffer the input of
+	   * the next threshold pass.
+	   */
+	  protected void setLumaInput(byte[] luma, int offset, int width, int height, int stride) {
+		  setByteInput(luma, offset, width, height, stride, 1);
+	  }
+
+
+	  /**
+	   * Makes the window (x, y, width, height) of the given frame the
+	   * input of the next threshold pass.
+	   */
+	  protected void setFrameInput(FrameSource frame, int x, int y, int width, int height) {
+		  if (x < 0 || y < 0 || width < 0 || height < 0 || 
+				  x + width > frame.getWidth() || y + height > frame.getHeight()) {
+			  throw new IllegalArgumentException("Window " + width + "x" + height + " at (" + 
+					  x + "," + y + ") outside of " + frame.getWidth() + "x" + frame.getHeight() + " frame");
+		  }
+		  PixelFormat format = frame.getFormat();
+		  int start = frame.indexOf(x, y) + format.getColorOffset();
+		  if (frame.getBuffer() != null) {
+			  setBufferInput(frame.getBuffer(), start, width, height, frame.getStride(), 
+					  format.getBytesPerPixel());
+		  } else {
+			  setByteInput(frame.getData(), start, width, height, frame.getStride(), 
+					  format.getBytesPerPixel());
+		  }
+	  }
+
+
+	  /**
+	   * Makes the given window of an 8-bit buffer the input of the next
+	   * threshold pass.  With 3 or more channels the first three bytes of
+	   * every pixel from offset on are color components (in any order) and
+	   * are averaged; offset and stride are counted in bytes.
+	   */
+	  protected void setByteInput(byte[] bytes, int offset, int width, int height, int stride, 
+			  int channels) {
+		  if (channels != 1 && channels < 3) {
+			  throw new IllegalArgumentException("Unsupported number of channels: " + channels);
+		  }
+		  checkWindow(bytes.length, offset, rowBytes(width, channels), height, stride);
+		  this.w        = width;
+		  this.h        = height;
+		  this.luma     = bytes;
+		  this.buffer   = null;
+		  this.data     = null;
+		  this.offset   = offset;
+		  this.stride   = stride;
+		  this.channels = channels;
+	  }
+
+
+	  /**
+	   * Makes the given window of a packed RGB buffer the input of the
+	   * next threshold pass.
+	   */
+	  protected void setRGBInput(int[] rgb, int offset, int width, int height, int stride) {
+		  checkWindow(rgb.length, offset, width, height, stride);
+		  this.w        = width;
+		  this.h        = height;
+		  this.data     = rgb;
+		  this.luma     = null;
+		  this.buffer   = null;
+		  this.offset   = offset;
+		  this.stride   = stride;
+		  this.channels = 1;
+	  }
+
+
+	  /**
+	   * Makes the given window of a ByteBuffer (read with absolute gets,
+	   * offset and stride in bytes) the input of the next threshold pass.
+	   * See setByteInput for the meaning of channels.
+	   */
+	  protected void setBufferInput(ByteBuffer bytes, int offset, int width, int height, int stride, 
+			  int channels) {
+		  if (channels != 1 && channels < 3) {
+			  throw new IllegalArgumentException("Unsupported number of channels: " + channels);
+		  }
+		  checkWindow(bytes.limit(), offset, rowBytes(width, channels), height, stride);
+		  this.w        = width;
+		  this.h        = height;
+		  this.buffer   = bytes;
+		  this.luma     = null;
+		  this.data     = null;
+		  this.offset   = offset;
+		  this.stride   = stride;
+		  this.channels = channels;
+	  }
+
+
+	  /**
+	   * Number of bytes read from a row of width pixels
+	   */
+	  private static int rowBytes(int width, int channels) {
+		  return (width > 0) ? (width - 1) * channels + Math.min(channels, 3) : 0;
+	  }
+
+
+	  private void checkWindow(int length, int offset, int width, int height, int stride) {
+		  if (offset < 0 || stride < width || 
+				  (height > 0 && length < offset + (height - 1) * stride + width)) {
+			  throw new IllegalArgumentException("Buffer too small for " + width + "x" + 
+					  height + " window at offset " + offset + " with stride " + stride);
+		  }
+	  }
+
+
+	  /**
+	   * Called when a new image is loaded by one of the scan methods of
+	   * this class.  Subclasses drop anything derived from the previous
+	   * image, such as previews.
+	   */
+	  protected void imageChanged() {
+	  }
+
+
+	  /**
+	   * Scan the image line by line looking for TopCodes   
+	   */
+	  protected List<TopCode> findCodes() {
+		  if (pyramidActive) return findCodesPyramid();
+		  this.tcount = 0;
+		  List<TopCode> spots = newResultList();
+		  grid.reset(0, 0, w, h, getGridCellSize());
+		  for (int p=0; p<planes; p++) {
+			  selectPlane(p);
+			  findCodes(spots);
+		  }
+		  if (planes > 1) selectPlane(0);
+		  if (warmStart) rememberCodes(spots);
+		  return spots;
+	  }
+
+
+	  /**
+	   * Keeps copies of the codes just found (which may be recycled by the
+	   * next scan) for the warm starts of the next scan.
+	   */
+	  protected void rememberCodes(List<TopCode> spots) {
+		  warmGrid.reset(0, 0, w, h, getGridCellSize());
+		  for (int i=0; i<spots.size(); i++) {
+			  if (i == warmCodes.size()) {
+				  warmCodes.add(new TopCode());
+			  }
+			  TopCode copy = warmCodes.get(i);
+			  copy.copyFrom(spots.get(i));
+			  warmGrid.add(copy);
+		  }
+	  }
+
+
+	  /**
+	   * Returns the code of the previous scan whose bullseye holds (x,y),
+	   * or null.
+	   */
+	  protected TopCode findWarmCode(int x, int y) {
+		  warmNear.clear();
+		  warmGrid.near(x, y, maxu, warmNear);
+		  for (int i=0; i<warmNear.size(); i++) {
+			  if (warmNear.get(i).inBullsEye(x, y)) return warmNear.get(i);
+		  }
+		  return null;
+	  }
+
+
+	  /**
+	   * Scan the current plane line by line looking for TopCodes and add
+	   * them to spots.  Candidates inside a bullseye already in the list
+	   * (found in this plane or in a previous one) are not decoded again,
+	   * which also keeps a marker seen with several sensitivity factors
+	   * from being reported twice.
+	   *
+	   * The pixels that pass the candidate test are first grouped into
+	   * clusters (8-connected runs merged with union-find): all of them
+	   * belong to the same bullseye, so each cluster is decoded once from
+	   * its centroid.  A cluster that fails is not retried pixel by pixel.
+	   */
+	  protected void findCodes(List<TopCode> spots) {
+		  collectRuns();
+		  mergeRuns();
+
+		  TopCode spot = newTopCode();
+		  for (int r=0; r<runs; r++) {
+			  if (runParent[r] != r) continue;   // not a cluster root
+			  spot = decodeCluster(spots, r, spot);
+		  }
+	  }
+
+
+	  /**
+	   * Decodes the cluster rooted at run r into spot from its centroid,
+	   * unless the centroid is inside a code already found or fails the
+	   * vertical run test.  A valid code is added to spots and a fresh
+	   * topcode is returned for the next cluster; otherwise spot is.
+	   */
+	  protected TopCode decodeCluster(List<TopCode> spots, int r, TopCode spot) {
+		  int sx = (int)(runSumX[r] / runCount[r]);
+		  int sy = (int)(runSumY[r] / runCount[r]);
+		  if (!overlaps(spots, sx, sy) && isVerticalBullsEye(sx, sy)) {
+			  this.tcount++;
+			  TopCode hint = warmStart ? findWarmCode(sx, sy) : null;
+			  if (hint != null) {
+				  spot.decode(this, sx, sy, hint);
+			  } else {
+				  spot.decode(this, sx, sy);
+			  }
+			  if (spot.isValid()) {
+				  addSpot(spots, spot);
+				  return newTopCode();
+			  }
+		  }
+		  return spot;
+	  }
+
+
+	  /**
+	   * Walks the centers the threshold stage listed for the current plane
+	   * and records the runs of adjacent pixels that pass the candidate
+	   * test (the pixel and its four neighbours are marked), row by row
+	   * and left to right.
+	   */
+	  private void collectRuns() {
+		  this.runs = 0;
+		  int[] counts = rowCands[plane];
+		  int i, e, n;
+		  for (int b=0; b<bands; b++) {
+			  int[] list = candLists[plane][b];
+			  int from = b * bandRows;
+			  int to = (b == bands - 1) ? h : from + bandRows;
+			  e = 0;
+			  for (int j=from; j<to; j++) {
+				  n = counts[j];
+				  if (j < 2 || j >= h - 2) {
+					  e += n;
+					  continue;
+				  }
+				  for (int end = e + n; e < end; e++) {
+					  for (i = list[e] - 1; i <= list[e] + 1; i++) {
+						  if (isCandidate(i-1, j) &&
+								  isCandidate(i+1, j) &&
+								  isCandidate(i, j-1) &&
+								  isCandidate(i, j+1)) {
+							  addPixel(j, i);
+						  }
+					  }
+				  }
+			  }
+		  }
+	  }
+
+
+	  /**
+	   * Adds pixel (i,j) to the runs, extending the last run when the
+	   * pixel is right after it.  Pixels must be added row by row and left
+	   * to right.
+	   */
+	  protected void addPixel(int j, int i) {
+		  if (runs > 0 && runRow[runs-1] == j && runX1[runs-1] == i - 1) {
+			  runX1[runs-1] = i;
+		  } else {
+			  addRun(j, i);
+		  }
+	  }
+
+
+	  private void addRun(int j, int i) {
+		  if (runRow == null || runs == runRow.length) {
+			  int size = (runRow == null) ? 256 : runRow.length * 2;
+			  this.runRow = java.util.Arrays.copyOf((runRow == null) ? new int[0] : runRow, size);
+			  this.runX0 = java.util.Arrays.copyOf((runX0 == null) ? new int[0] : runX0, size);
+			  this.runX1 = java.util.Arrays.copyOf((runX1 == null) ? new int[0] : runX1, size);
+			  this.runParent = new int[size];
+			  this.runCount = new int[size];
+			  this.runSumX = new long[size];
+			  this.runSumY = new long[size];
+		  }
+		  runRow[runs] = j;
+		  runX0[runs] = i;
+		  runX1[runs] = i;
+		  runs++;
+	  }
+
+
+	  /**
+	   * Unites the runs that touch a run of the previous row (including
+	   * diagonally) and sums the pixels of every cluster into its root.
+	   * Roots are always the cluster's first run, so clusters are decoded
+	   * in the order their top rows were scanned.
+	   */
+	  protected void mergeRuns() {
+		  int prev = 0, prevEnd = 0, cur = 0;
+		  for (int r=0; r<runs; r++) {
+			  runParent[r] = r;
+		  }
+		  while (cur < runs) {
+			  int j = runRow[cur];
+			  int end = cur;
+			  while (end < runs && runRow[end] == j) end++;
+			  if (prevEnd > prev && runRow[prev] != j - 1) {
+				  prev = prevEnd;   // previous row not adjacent
+			  }
+			  int p = prev;
+			  for (int r=cur; r<end; r++) {
+				  while (p < prevEnd && runX1[p] < runX0[r] - 1) p++;
+				  for (int q=p; q<prevEnd && runX0[q] <= runX1[r] + 1; q++) {
+					  union(q, r);
+				  }
+			  }
+			  prev = cur;
+			  prevEnd = end;
+			  cur = end;
+		  }
+		  for (int r=0; r<runs; r++) {
+			  runCount[r] = 0;
+			  runSumX[r] = runSumY[r] = 0;
+		  }
+		  for (int r=0; r<runs; r++) {
+			  int root = find(r);
+			  runParent[r] = root;
+			  int len = runX1[r] - runX0[r] + 1;
+			  runCount[root] += len;
+			  runSumX[root] += (long)(runX0[r] + runX1[r]) * len / 2;
+			  runSumY[root] += (long)runRow[r] * len;
+		  }
+	  }
+
+
+	  private int find(int r) {
+		  while (runParent[r] != r) {
+			  runParent[r] = runParent[runParent[r]];
+			  r = runParent[r];
+		  }
+		  return r;
+	  }
+
+
+	  private void union(int a, int b) {
+		  a = find(a);
+		  b = find(b);
+		  if (a < b) {
+			  runParent[b] = a;
+		  } else if (b < a) {
+			  runParent[a] = b;
+		  }
+	  }
+
+
+	  /**
+	   * Returns the list a scan collects its topcodes into: a fresh one,
+	   * or the recycled one (emptied) when recycling is enabled.
+	   */
+	  protected List<TopCode> newResultList() {
+		  if (!recycle) return new ArrayList<TopCode>();
+		  this.topcodesUsed = 0;
+		  results.clear();
+		  return results;
+	  }
+
+
+	  /**
+	   * Returns a topcode to decode into: a fresh one, or when recycling
+	   * the next one handed out by the previous scans.  Decoding sets all
+	   * of its fields, so recycled topcodes need no reset.
+	   */
+	  protected TopCode newTopCode() {
+		  if (!recycle) return new TopCode();
+		  if (topcodesUsed == topcodes.size()) {
+			  topcodes.add(new TopCode());
+		  }
+		  return topcodes.get(topcodesUsed++);
+	  }
+
+
+	  /**
+	   * Adds a topcode found by the current scan to spots and to the grid
+	   */
+	  protected void addSpot(List<TopCode> spots, TopCode spot) {
+		  spots.add(spot);
+		  grid.add(spot);
+	  }
+
+
+	  /**
+	   * Returns true if point (x,y) is in an existing TopCode bullseye.
+	   * Only looks at the grid cells around the point, so spots must have
+	   * been added with addSpot().
+	   */
+	  protected boolean overlaps(List<TopCode> spots, int x, int y) {
+		  return grid.inBullsEye(x, y);
+	  }
+
+
+	  /**
+	   * Side of the grid cells the topcodes of a scan are indexed in: about
+	   * the largest bullseye, so a point is checked against a cell or two.
+	   */
+	  protected int getGridCellSize() {
+		  return Math.max(8, Math.min(maxu * 2, 64));
+	  }
+
+
+	  /**
+	   * Returns the spatial index of the topcodes found by the last scan
+	   * (in the coordinates of the scanned image or window), for
+	   * neighbour queries.  It is refilled by every scan.
+	   */
+	  public TopCodeGrid getGrid() {
+		  return this.grid;
+	  }
+	
+	
+	  /**
+	   * Returns the binary view of the last scan as w*h ARGB pixels: 
+	   * black and white for the thresholded image, green for candidate
+	   * bullseye centers.  It is rendered once per scan (in a buffer kept
+	   * from one scan to the next) and the same array is returned until 
+	   * the next scan, so it can be handed to the display on every 
+	   * repaint.  Don't modify it.
+	   */
+	  public int[] getPreviewPixels() {
+		  if (previewReady) return previewPixels;
+		  if (previewPixels == null || previewPixels.length < w * h) {
+			  this.previewPixels = new int[w * h];
+		  }
+		  renderPreview(previewPixels, 0, w);
+		  this.previewReady = true;
+		  return previewPixels;
+	  }
+
+
+	  /**
+	   * Renders the binary view of the last scan into argb, as ARGB pixels
+	   * starting at offset with rows stride ints apart (see 
+	   * getPreviewPixels for the colors).
+	   */
+	  public void renderPreview(int[] argb, int offset, int stride) {
+		  for (int j=0; j<h; j++) {
+			  renderPreviewRow(j, argb, offset + j * stride);
+		  }
+	  }
+
+
+	  /**
+	   * Renders image row j of the binary view into argb starting at t.
+	   */
+	  protected void renderPreviewRow(int j, int[] argb, int t) {
+		  int k = planeRow(j) * w;
+		  int row = planeRow(j) * cwords;
+		  for (int c=0; c<cwords; c++) {
+			  long bits = cand[row + c];
+			  int end = Math.min(w, (c + 1) << 6);
+			  for (int i=c << 6; i<end; i++) {
+				  argb[t++] = PREVIEW_COLORS[bin[k++] | (int)((bits >>> i) & 1) << 1];
+			  }
+		  }
+	  }
+
+
+	  /**
+	   * Drops the preview rendered by getPreviewPixels, for subclasses
+	   * that change the planes outside threshold().
+	   */
+	  protected void previewChanged() {
+		  this.previewReady = false;
+	  }
+
+
+	  /**
+	   * Copies the binary view of the last scan into rgba as w*h pixels of
+	   * four bytes, red, green, blue and alpha, in one bulk transfer.  
+	   * That is the layout of libGDX RGBA8888 pixmaps and of OpenGL RGBA
+	   * textures.  The buffer's position is left unchanged.
+	   */
+	  public void renderPreview(ByteBuffer rgba) {
+		  int[] argb = getPreviewPixels();
+		  boolean big = rgba.order() == ByteOrder.BIG_ENDIAN;
+		  if (previewRow == null || previewRow.length < w) {
+			  this.previewRow = new int[w];
+		  }
+		  IntBuffer out = rgba.duplicate().order(rgba.order()).asIntBuffer();
+		  for (int j=0, k=0; j<h; j++) {
+			  for (int i=0; i<w; i++) {
+				  int p = argb[k++];
+				  p = (p << 8) | (p >>> 24);   // ARGB to RGBA
+				  previewRow[i] = big ? p : Integer.reverseBytes(p);
+			  }
+			  out.put(previewRow, 0, w);
+		  }
+	  }
+
+
+	  /**
+	   * Returns the number of candidate topcodes found during a scan
+	   */
+	  public int getCandidateCount() {
+		  return this.ccount;
+	  }
+	
+	
+	  /**
+	   * Returns the number of topcodes tested during a scan
+	   */
+	  public int getTestedCount() {
+		  return this.tcount;
+	  }
+
+
+	         
+	 /**
+	  * Sets the maximum allowable diameter (in pixels) for a TopCode
+	  * identified by the scanner.  Setting this to a reasonable value for
+	  * your application will reduce false positives (recognizing codes that
+	  * aren't actually there) and improve performance (because fewer
+	  * candidate codes will be tested).  Setting this value to as low as 50
+	  * or 60 pixels could be advisable for some applications.  However,
+	  * setting the maximum diameter too low will prevent valid codes from
+	  * being recognized.  The default value is 640 pixels.
+	  */
+	 public void setMaxCodeDiameter(int diameter) {
+		 float f = diameter / 8.0f;
+		 this.maxu = (int)Math.ceil(f);
+		 this.diameterSet = true;
+	 }
+
+	 /**
+	  * Restricts the TopCodes identified by the scanner to diameters (in
+	  * pixels) between min and max.  The bounds apply to the black rings
+	  * of the bullseye when candidates are marked, and to the unit read
+	  * before decoding, so candidates of the wrong size are rejected
+	  * before the decoder runs.  Leave some margin below the smallest
+	  * expected symbol: blur and tilt make the rings look thinner.  A
+	  * minimum of 0 removes the lower bound (the default).
+	  */
+	 public void setCodeDiameterRange(int min, int max) {
+		 if (min < 0 || min > max) {
+			 throw new IllegalArgumentException("Invalid diameter range: " + min + " to " + max);
+		 }
+		 setMaxCodeDiameter(max);
+		 this.minu = (int)Math.floor(min / 8.0f);
+	 }
+
+	 /**
+	  * Smallest unit (ring width in pixels) TopCode.readUnit accepts, from
+	  * the minimum code diameter.
+	  */
+	 public int getMinUnit() {
+		 return this.minu;
+	 }
+
+	 /**
+	  * Largest distance (in pixels) TopCode.readUnit walks from the center
+	  * of a bullseye looking for the outer edge of its black ring: two
+	  * units of the largest code allowed, plus a pixel of slack on each
+	  * side, once a maximum diameter was set.  Until then it is 100 pixels.
+	  */
+	 public int getUnitSearchLimit() {
+		 return diameterSet ? 2 * maxu + 2 : 100;
+	 }
+
+	 /**
+	  * When enabled, every scan returns the same list and decodes into the
+	  * topcodes returned by the previous scans, so once warmed up a stream
+	  * of frames of a fixed size allocates nothing per frame.  The list
+	  * and its topcodes are only valid until the next scan: copy whatever
+	  * has to be kept longer.  The default value is false.
+	  */
+	 public void setRecycleResults(boolean recycle) {
+		 this.recycle = recycle;
+		 this.topcodesUsed = 0;
+		 if (!recycle) {
+			 topcodes.clear();
+			 results = new ArrayList<TopCode>();
+		 }
+	 }
+
+	 public boolean isRecycleResults() {
+		 return this.recycle;
+	 }
+
+	 /**
+	  * Enables the coarse-to-fine pyramid mode for high resolution
+	  * cameras.  With a scale of 2 or 4 the bullseye candidates are found
+	  * on an image decimated by that factor (16 times fewer pixels at 4),
+	  * and only windows around them are thresholded and decoded at full
+	  * resolution.  The maximum code diameter stays in full resolution
+	  * pixels.  Markers must still be a few pixels per unit at the coarse
+	  * level, so use 4 only when symbols are larger than about 80 pixels.
+	  * Outside the refined windows the binary planes (and so the preview)
+	  * are left white.  The default value is 1 (no pyramid).
+	  */
+	 public void setPyramidScale(int scale) {
+		 if (scale != 1 && scale != 2 && scale != 4) {
+			 throw new IllegalArgumentException("Pyramid scale must be 1, 2 or 4: " + scale);
+		 }
+		 this.pyramidScale = scale;
+	 }
+
+	 public int getPyramidScale() {
+		 return this.pyramidScale;
+	 }
+
+	 /**
+	  * Makes TopCode.decode search the unit scales and arc adjustments
+	  * coarse-to-fine (see TopCode.searchCoarse) instead of trying all 50
+	  * combinations, climbing from the best of a few readings.  It takes
+	  * a fraction of the readCode calls on clean markers, and finds the
+	  * orientation of the full search to within an arc adjustment.
+	  * Disabled by default.
+	  */
+	 public void setCoarseDecode(boolean coarse) {
+		 this.coarseDecode = coarse;
+	 }
+
+	 public boolean isCoarseDecode() {
+		 return this.coarseDecode;
+	 }
+
+	 /**
+	  * Makes the scanner decode a bullseye inside the bullseye of a code
+	  * it found in the previous scan with that code's unit scale and
+	  * orientation (see TopCode.decode(Scanner, int, int, TopCode)), so
+	  * markers that stay still decode in one to three readCode calls
+	  * instead of fifty.  The full search runs when the unit measured
+	  * changed or that reading isn't confident enough.  Scans should be
+	  * of the same camera and window; pyramid mode and streaming don't
+	  * warm start.  Disabled by default.
+	  */
+	 public void setWarmStart(boolean warm) {
+		 this.warmStart = warm;
+		 warmGrid.reset(0, 0, 1, 1, 1);
+	 }
+
+	 public boolean isWarmStart() {
+		 return this.warmStart;
+	 }
+
+	 /**
+	  * Sets the confidence, as a fraction of TopCode.MAX_CONFIDENCE, at
+	  * which the coarse-to-fine decode search stops trying other unit
+	  * scales, and below which a warm start falls back to the full search.
+	  * Lower values decode faster, higher ones try more unit scales on
+	  * blurry markers; well below the default, the search can settle on
+	  * a scale whose best orientation is a few arc adjustments off that
+	  * of the full search.  The default value is 0.9.
+	  */
+	 public void setDecodeStopFraction(float fraction) {
+		 if (fraction <= 0 || fraction > 1) {
+			 throw new IllegalArgumentException("Stop fraction must be in (0, 1]: " + fraction);
+		 }
+		 this.decodeStop = fraction;
+	 }
+
+	 public float getDecodeStopFraction() {
+		 return this.decodeStop;
+	 }
+
+	 /**
+	  * Sets the candidate count from which the scanner precomputes the 3x3
+	  * neighborhood sums of the binary image before decoding.  On busy
+	  * frames that turns every decode sample into a single array read;
+	  * on quiet frames the extra pass would cost more than it saves.
+	  * Use 0 to always build it and Integer.MAX_VALUE to never build it.
+	  * The default value is 1500 candidate pixels.
+	  */
+	 public void setBoxPlaneThreshold(int candidates) {
+		 this.boxThreshold = candidates;
+	 }
+
+
+	 /**
+	  * Sets the strategy that decides the local threshold of every pixel.
+	  * The default is WellnerThreshold; BradleyThreshold and
+	  * SauvolaThreshold handle uneven lighting better and split into
+	  * parallel bands without warm-up rows.
+	  */
+	 public void setThresholdStrategy(ThresholdStrategy strategy) {
+		 this.strategy = strategy;
+	 }
+
+
+	 /**
+	  * Returns the strategy that decides the local threshold of every pixel.
+	  */
+	 public ThresholdStrategy getThresholdStrategy() {
+		 return this.strategy;
+	 }
+
+
+	 /**
+	  * Sets the number of threads used by the adaptive threshold filter.
+	  * With more than one thread the image is split into horizontal bands
+	  * that are thresholded concurrently, which pays off on large (720p
+	  * and up) frames.  The default value is 1 (serial filter).
+	  */
+	 public void setThresholdThreads(int threads) {
+		 threads = Math.max(1, threads);
+		 if (threads != this.threads && pool != null) {
+			 pool.shutdown();
+			 pool = null;
+		 }
+		 this.threads = threads;
+	 }
+
+
+	 /**
+	  * Returns the number of threads used by the adaptive threshold filter.
+	  */
+	 public int getThresholdThreads() {
+		 return this.threads;
+	 }
+
+
+	 /**
+	  * Lazily creates the thread pool used by the parallel threshold
+	  * filter.  Threads are daemons so an idle scanner never keeps the
+	  * application alive.
+	  */
+	 protected ExecutorService getThresholdPool() {
+		 if (pool == null) {
+			 pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				 public Thread newThread(Runnable r) {
+					 Thread t = new Thread(r, "topcode-threshold");
+					 t.setDaemon(true);
+					 return t;
+				 }
+			 });
+		 }
+		 return pool;
 	 }
 
 	 /**
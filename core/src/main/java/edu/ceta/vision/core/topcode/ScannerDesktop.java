@@ -30,6 +30,12 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 import java.io.File;
 import java.io.IOException;
@@ -56,6 +62,15 @@ public class ScannerDesktop extends Scanner {
    /** Binary view of the image */
    protected BufferedImage preview;
 
+   /** Pixels of the scanned BufferedImage, reused from one scan to the next */
+   private int[] pixels;
+
+   /** Describes the raster of byte images, reused from one scan to the next */
+   private FrameSource rasterFrame = new FrameSource();
+
+   /** Result of wrapImage, reused from one scan to the next */
+   private RasterInput rasterInput = new RasterInput();
+
 /**
  * Default constructor
  */
@@ -87,15 +102,116 @@ public class ScannerDesktop extends Scanner {
       this.preview = null;
       this.w       = image.getWidth();
       this.h       = image.getHeight();
-      this.data    = image.getRGB(0, 0, w, h, null, 0, w);
+      setImageInput(image);
       
       threshold();          // run the adaptive threshold filter
       return findCodes();   // scan for topcodes
    }
 
 
+/**
+ * Scan the given image thresholding it with several sensitivity
+ * factors in a single pass (e.g. 0.85 for bright and 0.975 for shadowed
+ * regions), and return the topcodes found with any of them.
+ */
+   public List<TopCode> scan(BufferedImage image, double[] factors) {
+      this.image   = image;
+      this.preview = null;
+      this.w       = image.getWidth();
+      this.h       = image.getHeight();
+      setImageInput(image);
+      
+      threshold(factors);   // run the adaptive threshold filter
+      return findCodes();   // scan for topcodes
+   }
+
+
+/**
+ * Makes the image the input of the next threshold pass.
+ */
+   protected void setImageInput(BufferedImage image) {
+      RasterInput input = wrapImage(image, 0, 0, w, h);
+      if (input.frame != null) {
+         setFrameInput(input.frame, 0, 0, w, h);
+      } else {
+         setRGBInput(input.rgb, input.offset, w, h, input.stride);
+      }
+   }
+
+
+/**
+ * Describes the rectangle (x, y, width, height) of the image as a scan
+ * input.  The common types (3BYTE_BGR, BYTE_GRAY, INT_RGB and INT_ARGB)
+ * are read straight from their backing arrays, sub-images included; any
+ * other type is copied with getRGB into the reused pixel buffer.  The
+ * returned input is reused by the next call.
+ */
+   protected RasterInput wrapImage(BufferedImage image, int x, int y, int width, int height) {
+      WritableRaster raster = image.getRaster();
+      SampleModel model = raster.getSampleModel();
+      int tx = x - raster.getSampleModelTranslateX();
+      int ty = y - raster.getSampleModelTranslateY();
+      
+      switch (image.getType()) {
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_BYTE_GRAY:
+         if (model instanceof ComponentSampleModel &&
+             raster.getDataBuffer() instanceof DataBufferByte) {
+            ComponentSampleModel sm = (ComponentSampleModel)model;
+            DataBufferByte db = (DataBufferByte)raster.getDataBuffer();
+            int ps = sm.getPixelStride();
+            int ss = sm.getScanlineStride();
+            int first = Integer.MAX_VALUE;
+            for (int b : sm.getBandOffsets()) first = Math.min(first, b);
+            rasterFrame.set(db.getData(), db.getOffset() + ty * ss + tx * ps + first, width, height, ss,
+                            (ps == 1) ? PixelFormat.GRAY8 : PixelFormat.BGR);
+            return rasterInput.set(rasterFrame, null, 0, 0);
+         }
+         break;
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+         if (model instanceof SinglePixelPackedSampleModel &&
+             raster.getDataBuffer() instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel)model;
+            DataBufferInt db = (DataBufferInt)raster.getDataBuffer();
+            int ss = sm.getScanlineStride();
+            return rasterInput.set(null, db.getData(), db.getOffset() + ty * ss + tx, ss);
+         }
+         break;
+      }
+      if (pixels == null || pixels.length < width * height) {
+         this.pixels = new int[width * height];
+      }
+      image.getRGB(x, y, width, height, pixels, 0, width);
+      return rasterInput.set(null, pixels, 0, width);
+   }
+
+
+/**
+ * Where wrapImage found the pixels: either frame, a byte frame whose
+ * (0,0) is the corner of the rectangle, or the packed RGB array rgb
+ * read from offset with the given stride.
+ */
+   protected static class RasterInput {
+      FrameSource frame;
+      int[] rgb;
+      int offset;
+      int stride;
+      
+      RasterInput set(FrameSource frame, int[] rgb, int offset, int stride) {
+         this.frame  = frame;
+         this.rgb    = rgb;
+         this.offset = offset;
+         this.stride = stride;
+         return this;
+      }
+   }
+
+
 /**
  * Scan the image and return a list of all topcodes found in it.
+ * The pixel array is only read, never modified, and nothing is
+ * copied: getImage() builds an image from it only when asked.
  *
  * @param rgb an array of pixel data in packed RGB format
  * @param width width of the image
@@ -104,20 +220,36 @@ public class ScannerDesktop extends Scanner {
    public List<TopCode> scan(int [] rgb, int width, int height) {
       this.w       = width;
       this.h       = height;
-      this.data    = rgb;
+      setRGBInput(rgb, 0, width, height, width);
       this.preview = null;
-      this.image   = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-      this.image.setRGB(0, 0, w, h, rgb, 0, w);
+      this.image   = null;
 
       threshold();         // run the adaptive threshold filter
       return findCodes();  // scan for topcodes
    }
    
 
+/**
+ * Drops the image and preview of the previous scan when a frame is
+ * loaded through one of the Scanner scan methods (8-bit intensity
+ * buffers, windows of larger frames).  No image is built for those:
+ * getImage() builds one on demand from packed RGB input, and returns
+ * null after scanning 8-bit intensities.
+ */
+   protected void imageChanged() {
+      this.image   = null;
+      this.preview = null;
+   }
+   
+
 /**
  * Returns the original (unaltered) image   
  */
    public BufferedImage getImage() {
+      if (this.image == null && this.data != null) {
+         this.image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+         this.image.setRGB(0, 0, w, h, data, offset, stride);
+      }
       return this.image;
    }
 
@@ -131,24 +263,9 @@ public class ScannerDesktop extends Scanner {
       this.preview =
       new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
 
-      int pixel = 0;
-      int k = 0;
-      for (int j=0; j<h; j++) { 
-         for (int i=0; i<w; i++) {
-
-            pixel = (data[k++] >> 24);
-            if (pixel == 0) {
-               pixel = 0xFF000000;
-            } else if (pixel == 1) {
-               pixel = 0xFFFFFFFF;
-            } else if (pixel == 3) {
-               pixel = 0xFF00FF00;
-            } else if (pixel == 7) {
-               pixel = 0xFFFF0000;
-            }
-            this.preview.setRGB(i, j, pixel);
-         }
-      }
+      // one bulk copy into the raster instead of a setRGB per pixel
+      int[] dst = ((DataBufferInt)preview.getRaster().getDataBuffer()).getData();
+      System.arraycopy(getPreviewPixels(), 0, dst, 0, w * h);
       return preview;
    }
 }
\ No newline at end of file
@@ -0,0 +1,395 @@
+package edu.ceta.vision.core.topcode;
+
+import java.util.List;
+
+/**
+ * Scans an image that arrives a strip of rows at a time, as delivered
+ * by capture drivers and line scanners, instead of a whole frame at
+ * once.  Rows are thresholded and their candidates marked as they are
+ * pushed, and every bullseye is decoded as soon as the rows the decoder
+ * may read below it (half the largest symbol) have been thresholded.
+ * Codes are therefore reported while the rest of the image is still
+ * coming in.
+ *
+ * Only a ring of rows (a few maximum code diameters high) is kept, so
+ * the memory used does not depend on the height of the image:
+ *
+ * <pre>
+ *    StreamingScanner scanner = new StreamingScanner();
+ *    scanner.begin(width, height);
+ *    while (...) {
+ *       List&lt;TopCode&gt; found = scanner.pushRows(strip, 0, rows, width);
+ *    }
+ * </pre>
+ *
+ * The threshold strategy must work row by row (Wellner's filter, the
+ * default); strategies that need the whole image up front, such as
+ * BradleyThreshold, can't stream.  Pyramid mode and parallel
+ * thresholding are not available while streaming, and previews only
+ * show the rows still held by the ring.
+ */
+public class StreamingScanner extends Scanner {
+
+	/** Rows thresholded together unless the image ends first */
+	protected static final int MIN_STREAM_ROWS = 16;
+
+	/** Intensity of the rows held in the ring */
+	protected byte[] gray;
+
+	/** Rows held by the ring (gray, binary and candidate planes) */
+	protected int ringRows;
+
+	/** Rows thresholded and collected per step */
+	protected int chunkRows;
+
+	/** Rows above and below a bullseye center the decoder may read */
+	protected int reach;
+
+	/** Height of the image being streamed */
+	protected int height;
+
+	/** Rows pushed so far */
+	protected int received;
+
+	/** Rows thresholded so far */
+	protected int thresholded;
+
+	/** Per plane: first row whose candidates haven't been settled */
+	protected int[] next;
+
+	/** Per plane: end of the rows collected by the previous step */
+	protected int[] seen;
+
+	/** Last row of every cluster, indexed by its root run */
+	private int[] runLast;
+
+	/** Intensity row buffer used while filling the ring */
+	private int[] lum;
+
+	/** Codes found so far in the current image */
+	protected List<TopCode> spots;
+
+	/** Topcode the next cluster is decoded into */
+	private TopCode spot;
+
+	private double[] defaultFactors = { 0.85 };
+
+
+	public StreamingScanner() {
+		this.maxu = 80;
+		this.boxThreshold = Integer.MAX_VALUE;   // needs the whole plane
+	}
+
+
+	/**
+	 * Starts a new image of the given size with the default sensitivity
+	 * factor.  Rows are then handed over with pushRows, top to bottom.
+	 */
+	public void begin(int width, int height) {
+		begin(width, height, defaultFactors);
+	}
+
+
+	/**
+	 * Starts a new image of the given size thresholded with several
+	 * sensitivity factors (see Scanner.threshold(double[])).
+	 */
+	public void begin(int width, int height, double[] factors) {
+		if (!(strategy instanceof WellnerThreshold)) {
+			throw new IllegalStateException("Streaming needs a row by row threshold strategy");
+		}
+		this.w = width;
+		this.h = height;
+		this.height = height;
+		this.data = null;
+		this.luma = null;
+		this.buffer = null;
+
+		//----------------------------------------
+		// The decoder reads up to 3.5 units (plus
+		// adjustments and a 3x3 sample) from the
+		// center; the ring holds a step, that much
+		// above and below a center, and the rows
+		// of a bullseye cluster
+		//----------------------------------------
+		this.reach = 4 * maxu + 3;
+		this.chunkRows = Math.max(MIN_STREAM_ROWS, reach);
+		this.ringRows = Math.min(height, chunkRows + 2 * reach + 2 * maxu + 8);
+		if (gray == null || gray.length < ringRows * width) {
+			this.gray = new byte[ringRows * width];
+		}
+		if (lum == null || lum.length < width) {
+			this.lum = new int[width];
+		}
+
+		this.factors = factors;
+		this.pyramidActive = false;
+		beginThreshold(1);
+		previewChanged();
+		if (next == null || next.length < planes) {
+			this.next = new int[planes];
+			this.seen = new int[planes];
+		}
+		java.util.Arrays.fill(next, 0);
+		java.util.Arrays.fill(seen, 0);
+		this.received = 0;
+		this.thresholded = 0;
+		this.ccount = 0;
+		this.tcount = 0;
+		this.spots = newResultList();
+		this.spot = newTopCode();
+		grid.reset(0, 0, width, height, getGridCellSize());
+		imageChanged();
+	}
+
+
+	/**
+	 * Hands over the next rows of the image as 8-bit intensities (a
+	 * grayscale strip or a strip of the Y plane of a YUV frame).  The
+	 * bytes are copied, so the buffer can be reused as soon as this
+	 * returns.
+	 *
+	 * @param luma one intensity byte per pixel
+	 * @param offset index of the first pixel of the strip
+	 * @param rows number of rows in the strip
+	 * @param stride distance between the starts of two rows
+	 * @return every code found so far in the image
+	 */
+	public List<TopCode> pushRows(byte[] luma, int offset, int rows, int stride) {
+		setByteInput(luma, offset, w, rows, stride, 1);
+		return push(rows);
+	}
+
+
+	/**
+	 * Hands over the next rows of the image in packed RGB format.
+	 * @see #pushRows(byte[], int, int, int)
+	 */
+	public List<TopCode> pushRows(int[] rgb, int offset, int rows, int stride) {
+		setRGBInput(rgb, offset, w, rows, stride);
+		return push(rows);
+	}
+
+
+	/**
+	 * Hands over the next rows of the image in any pixel format: the
+	 * strip is the whole of the given frame, which must be as wide as
+	 * the image.
+	 * @see #pushRows(byte[], int, int, int)
+	 */
+	public List<TopCode> pushRows(FrameSource strip) {
+		if (strip.getWidth() != w) {
+			throw new IllegalArgumentException("Strip " + strip.getWidth() +
+					" pixels wide for an image " + w + " pixels wide");
+		}
+		setFrameInput(strip, 0, 0, w, strip.getHeight());
+		return push(strip.getHeight());
+	}
+
+
+	/**
+	 * Copies the rows of the input into the ring a step at a time,
+	 * thresholding and decoding as they fill up.
+	 */
+	protected List<TopCode> push(int rows) {
+		this.h = height;
+		if (received + rows > height) {
+			throw new IllegalArgumentException("Image is only " + height + " rows high");
+		}
+		int done = 0;
+		while (done < rows) {
+			int n = Math.min(rows - done, chunkRows - (received - thresholded));
+			for (int i=0; i<n; i++) {
+				super.readIntensities(done + i, lum);
+				int k = planeRow(received + i) * w;
+				for (int x=0; x<w; x++) {
+					gray[k++] = (byte)lum[x];
+				}
+			}
+			this.received += n;
+			done += n;
+			if (received - thresholded >= MIN_STREAM_ROWS ||
+					received - thresholded == chunkRows || received == height) {
+				advance();
+			}
+		}
+		this.data = null;
+		this.luma = null;
+		this.buffer = null;
+		return spots;
+	}
+
+
+	/**
+	 * Thresholds the rows received since the last step and decodes the
+	 * clusters that can no longer grow and whose rows are all in.
+	 */
+	protected void advance() {
+		int from = thresholded, to = received;
+		for (int p=0; p<planes; p++) {
+			for (int j=from; j<to; j++) {   // the ring row still holds older marks
+				int row = planeRow(j) * cwords;
+				java.util.Arrays.fill(candPlanes[p], row, row + cwords, 0L);
+			}
+		}
+		this.ccount += thresholdRows(from, to);
+		clearCandidateLists();   // streaming walks the candidate planes instead
+		this.thresholded = to;
+		previewChanged();
+
+		boolean last = (thresholded == height);
+		for (int p=0; p<planes; p++) {
+			selectPlane(p);
+			settle(p, last);
+		}
+		if (planes > 1) selectPlane(0);
+	}
+
+
+	/**
+	 * Collects the candidate runs of plane p from the first unsettled row
+	 * down to a reach above the last row thresholded, and decodes the
+	 * clusters that end above that.  Clusters touching the last row
+	 * collected may still grow and are collected again in the next step;
+	 * those ending above the rows collected by the previous step were
+	 * already decoded and are skipped.
+	 */
+	protected void settle(int p, boolean last) {
+		int b = last ? h : thresholded - reach - 1;
+		int a = next[p];
+		if (thresholded > ringRows) {   // rows above were overwritten
+			a = Math.max(a, thresholded - ringRows + reach + 1);
+		}
+		if (b <= a) return;
+
+		this.runs = 0;
+		for (int j=Math.max(a, 2); j<Math.min(b, h - 2); j++) {
+			int row = planeRow(j) * cwords;
+			for (int c=0; c<cwords; c++) {
+				long bits = cand[row + c];
+				while (bits != 0) {
+					int i = (c << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					if (isCandidate(i-1, j) && isCandidate(i+1, j) &&
+							isCandidate(i, j-1) && isCandidate(i, j+1)) {
+						addPixel(j, i);
+					}
+				}
+			}
+		}
+		mergeRuns();
+
+		if (runs > 0 && (runLast == null || runLast.length < runs)) {
+			this.runLast = new int[runRow.length];
+		}
+		for (int r=0; r<runs; r++) {
+			runLast[runParent[r]] = runRow[r];   // runs come row by row
+		}
+		int resume = b;
+		for (int r=0; r<runs; r++) {
+			if (runParent[r] != r) continue;   // not a cluster root
+			if (runLast[r] < seen[p] - 1) continue;   // decoded last step
+			if (!last && runLast[r] >= b - 1) {   // may go on below
+				resume = Math.min(resume, runRow[r]);
+				continue;
+			}
+			this.spot = decodeCluster(spots, r, spot);
+		}
+		next[p] = resume;
+		seen[p] = b;
+	}
+
+
+	/**
+	 * Returns true once every row of the image has been pushed and
+	 * decoded.
+	 */
+	public boolean isFinished() {
+		return thresholded == height;
+	}
+
+
+	/**
+	 * Returns the codes found so far in the current image.
+	 */
+	public List<TopCode> getCodes() {
+		return spots;
+	}
+
+
+	/**
+	 * Rows are held in a ring: row j is in ring row j % ringRows.
+	 */
+	protected int getPlaneRows() {
+		return ringRows;
+	}
+
+
+	protected int planeRow(int j) {
+		return j % ringRows;
+	}
+
+
+	/**
+	 * Reads the intensities of row j from the ring.
+	 */
+	public void readIntensities(int j, int[] lum) {
+		int k = planeRow(j) * w;
+		for (int i=0; i<w; i++) {
+			lum[i] = gray[k++] & 0xff;
+		}
+	}
+
+
+	protected int getBW(int x, int y) {
+		return bin[planeRow(y) * w + x];
+	}
+
+
+	protected boolean isCandidate(int x, int y) {
+		if (x < 0 || x >= w || y < 0 || y >= h) return false;
+		return (cand[planeRow(y) * cwords + (x >> 6)] & (1L << x)) != 0;
+	}
+
+
+	protected int getSample3x3(int x, int y) {
+		if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
+		return (sum3x3(x, y) * 0xff / 9);
+	}
+
+
+	protected int getBW3x3(int x, int y) {
+		if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
+		return (sum3x3(x, y) >= 5) ? 1 : 0;
+	}
+
+
+	private int sum3x3(int x, int y) {
+		int k = planeRow(y - 1) * w + x;
+		int sum = (bin[k-1] + bin[k] + bin[k+1]);
+		k = planeRow(y) * w + x;
+		sum += (bin[k-1] + bin[k] + bin[k+1]);
+		k = planeRow(y + 1) * w + x;
+		sum += (bin[k-1] + bin[k] + bin[k+1]);
+		return sum;
+	}
+
+
+	/**
+	 * Renders the binary view of the rows still held by the ring (the
+	 * last ringRows rows thresholded) at their place in the image.  Rows
+	 * already dropped from the ring, or not thresholded yet, are left
+	 * transparent.
+	 */
+	public void renderPreview(int[] argb, int offset, int stride) {
+		int first = Math.max(0, thresholded - ringRows);
+		for (int j=0; j<h; j++) {
+			int t = offset + j * stride;
+			if (j < first || j >= thresholded) {
+				java.util.Arrays.fill(argb, t, t + w, 0);
+			} else {
+				renderPreviewRow(j, argb, t);
+			}
+		}
+	}
+}
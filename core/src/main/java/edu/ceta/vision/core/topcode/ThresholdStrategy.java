@@ -0,0 +1,43 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Decides, for every pixel of the image being scanned, the local
+ * threshold level.  A pixel is black when its intensity is below that
+ * level times the scanner's sensitivity factor.  The scanner delegates
+ * the threshold stage to a strategy and keeps the bullseye candidate
+ * marking for itself, so findCodes() and TopCode.decode() work the
+ * same whatever strategy is used.
+ *
+ * A strategy processes the image in bands of rows.  When the scanner
+ * runs in parallel (see Scanner.setThresholdThreads) several bands of
+ * the same frame are thresholded at the same time, so threshold() must
+ * not keep per-band state in fields.
+ */
+public interface ThresholdStrategy {
+
+	/**
+	 * Called once per frame, before any band is thresholded.  Strategies
+	 * that need a whole-image pass (an integral image, for instance)
+	 * build it here.
+	 */
+	void prepare(Scanner scanner);
+	
+	/**
+	 * Thresholds rows [from, to) of the scanner's current image.  For
+	 * every row the strategy reads the intensities with
+	 * Scanner.readIntensities(), stores the local threshold of every
+	 * column in thresh, and hands both to Scanner.binarizeRow().  Rows
+	 * must be handed over in increasing order, each one exactly once:
+	 * the scanner lists the candidates of a band row after row.
+	 *
+	 * @param scanner the scanner whose image is being thresholded
+	 * @param from first row of the band
+	 * @param to row after the last row of the band
+	 * @param lum row buffer for intensities
+	 * @param thresh row buffer for thresholds
+	 * @param scratch extra row buffer for the strategy's own use
+	 * @return the number of candidate pixels marked in the band
+	 */
+	int threshold(Scanner scanner, int from, int to, 
+			int[] lum, int[] thresh, int[] scratch);
+}
@@ -72,11 +72,78 @@ public class TopCode {
    /** Span of a data sector in radians */
    protected static float ARC = (2 * PI / SECTORS);
 
+   /**
+    * Highest confidence readCode can return: eight samples per sector
+    * (six ring samples, the data sample and the opposite data sample)
+    * worth up to 0xff each.
+    */
+   public static final int MAX_CONFIDENCE = 13 * 8 * 0xff;
+
+   /** Highest confidence a single sector adds */
+   protected static final int MAX_SECTOR_CONFIDENCE = 8 * 0xff;
+
+   /**
+    * Order readCode reads the sectors in: four spread around the symbol
+    * first, so a reading whose rings don't line up fails after a few
+    * samples, then the others.
+    */
+   private static final int[] SECTOR_ORDER = { 0, 3, 5, 8, 12, 11, 10, 9, 7, 6, 4, 2, 1 };
+
+   /** Unit scales tried by the coarse search, measured unit first */
+   private static final int[] COARSE_SCALES = { 2, 1, 3, 0, 4 };
+
+   /** Arc adjustments read around a previous frame's one, in order */
+   private static final int[] HINT_ARCS = { 0, -1, 1 };
+
+   /** Largest difference of a measured unit from a hint's, in pixels */
+   private static final float HINT_UNIT_TOLERANCE = 0.125f;
+
+   /** Number of 13-bit words */
+   private static final int WORDS = 1 << 13;
+
+   /** Per 13-bit word: true if it has the five one bits of a valid code */
+   private static final boolean[] VALID = new boolean[WORDS];
+
+   /** Per 13-bit word: its lowest rotation */
+   private static final short[] LOWEST = new short[WORDS];
+
+   /** Per 13-bit word: left rotations to its lowest, 0 if it already is */
+   private static final byte[] ROTATION = new byte[WORDS];
+
+   /** Every valid code, in increasing order */
+   private static final int[] CODES;
+
+   static {
+      int mask = WORDS - 1;
+      int count = 0;
+      for (int w = 0; w < WORDS; w++) {
+         int bits = w, min = w, rot = 0;
+         for (int i=1; i<=SECTORS; i++) {
+            bits = (((bits << 1) & mask) | (bits >> (SECTORS - 1)));
+            if (bits < min) {
+               min = bits;
+               rot = i;
+            }
+         }
+         VALID[w] = (Integer.bitCount(w) == 5);
+         LOWEST[w] = (short)min;
+         ROTATION[w] = (byte)rot;
+         if (VALID[w] && min == w) count++;
+      }
+      CODES = new int[count];
+      for (int w = 0, n = 0; w < WORDS; w++) {
+         if (VALID[w] && LOWEST[w] == w) CODES[n++] = w;
+      }
+   }
+
    /** The symbol's code, or -1 if invalid. */
    protected int code;
 
    /** The width of a single ring. */
    protected float unit;
+
+   /** The unit readUnit measured, before the decoder's scale adjustment */
+   protected float measuredUnit;
    
    /** The angular orientation of the symbol (in radians) */
    protected float orientation;
@@ -205,6 +272,70 @@ public class TopCode {
  * circle (bulls-eye) of the code.  
  */
    public int decode(Scanner scanner, int cx, int cy) {
+      locate(scanner, cx, cy);
+      this.unit = readUnit(scanner);
+      this.measuredUnit = unit;
+      this.code = -1;
+      if (unit < 0) return -1;
+      return search(scanner);
+   }
+
+
+/**
+ * Decodes a symbol that was near hint in the previous frame.  If
+ * readUnit measures the same unit as it did for hint, the symbol is
+ * read with hint's unit and orientation, along with the arc adjustments
+ * on either side so a slow rotation is followed (the bound in readCode
+ * usually abandons those early).  The full search of decode(scanner,
+ * cx, cy) runs only if the units differ or no reading reaches the
+ * scanner's decode stop fraction of MAX_CONFIDENCE.  The unit is still
+ * measured because the confidence of a reading hardly drops with a unit
+ * several percent off, so it can't tell a marker that moved closer.
+ */
+   public int decode(Scanner scanner, int cx, int cy, TopCode hint) {
+      locate(scanner, cx, cy);
+      this.unit = readUnit(scanner);
+      this.measuredUnit = unit;
+      this.code = -1;
+      if (unit < 0) return -1;
+      if (Math.abs(unit - hint.measuredUnit) > HINT_UNIT_TOLERANCE) {
+         return search(scanner);
+      }
+
+      int[] steps = scanner.offsets.get(unit);
+
+      // unit scale and arc adjustment hint was read with (see finish
+      // and rotateLowest); the arc only matters up to a whole sector
+      int s = Math.round((hint.unit / hint.measuredUnit - 1) * 20) + 2;
+      s = Math.max(0, Math.min(SampleOffsets.SCALES - 1, s));
+      float arca = (hint.orientation + ARC * 0.65f) % ARC;
+      if (arca < 0) arca += ARC;
+      int a = Math.round(arca / SampleOffsets.getArc(1));
+
+      int c, t;
+      int maxc = 0;
+      int maxt = 0;
+      for (int d = 0; d < HINT_ARCS.length; d++) {
+         t = s * SampleOffsets.ARCS + (a + HINT_ARCS[d] + SampleOffsets.ARCS) % SampleOffsets.ARCS;
+         c = readCode(scanner, steps, t, maxc);
+         if (c > maxc) {
+            maxc = c;
+            maxt = t;
+         }
+      }
+      if (maxc < scanner.getDecodeStopFraction() * MAX_CONFIDENCE) {
+         this.code = -1;
+         return search(scanner);
+      }
+      return finish(scanner, steps, maxt);
+   }
+
+
+/**
+ * Finds the center of the symbol from a point (cx, cy) inside its
+ * bulls-eye, to a fraction of a pixel.
+ */
+   protected void locate(Scanner scanner, int cx, int cy) {
 
       int up = (scanner.ydist(cx, cy, -1) +
                 scanner.ydist(cx - 1, cy, -1) +
@@ -227,74 +358,170 @@ public class TopCode {
       this.y = cy;
       this.x += (right - left) / 6.0f;
       this.y += (down - up) / 6.0f;
-      this.unit = readUnit(scanner);
-      this.code = -1;
-      if (unit < 0) return -1;
+   }
 
+
+/**
+ * Searches the unit scales and arc adjustments around the measured unit
+ * for the best reading.
+ */
+   protected int search(Scanner scanner) {
       int c = 0;
       int maxc = 0;
-      float arca;
-      float maxa = 0;
-      float maxu = 0;
+      int maxt = 0;
+      int[] steps = scanner.offsets.get(unit);
 
       //-----------------------------------------
       // Try different unit and arc adjustments,
       // save the one that produces a maximum
       // confidence reading...
       //-----------------------------------------
-      for (int u = -2; u <= 2; u++) { 
-         for (int a = 0; a < 10; a++) {
-            arca = a * ARC * 0.1f;
-            c = readCode(scanner,
-                         unit + (unit * 0.05f * u),
-                         arca);
-            if (c > maxc) { 
-               maxc = c;
-               maxa = arca;
-               maxu = unit + (unit * 0.05f * u);
+      if (scanner.isCoarseDecode()) {
+         maxt = searchCoarse(scanner, steps);
+         maxc = (maxt >= 0) ? 1 : 0;
+      } else {
+         for (int s = 0; s < SampleOffsets.SCALES; s++) {
+            for (int t = s * SampleOffsets.ARCS; t < (s + 1) * SampleOffsets.ARCS; t++) { 
+               c = readCode(scanner, steps, t, maxc);
+               if (c > maxc) { 
+                  maxc = c;
+                  maxt = t;
+               }
             }
          }
       }
          
-      // One last call to readCode to reset orientation and code
       if (maxc > 0) {
-         unit = maxu;
-         readCode(scanner, unit, maxa);
-         this.code = rotateLowest(code, maxa);
+         return finish(scanner, steps, maxt);
       }
-      
+      return this.code;
+   }
+
+
+/**
+ * One last call to readCode to reset orientation and code from the best
+ * reading t.
+ */
+   protected int finish(Scanner scanner, int[] steps, int t) {
+      float maxa = SampleOffsets.getArc(t % SampleOffsets.ARCS);
+      readCode(scanner, steps, t);
+      this.unit = SampleOffsets.getUnit(unit, t / SampleOffsets.ARCS);
+      this.code = rotateLowest(code, maxa);
       return this.code;
    }
 
    
 /**
- * Attempts to decode the binary pixels of an image into a code
- * value.
+ * Coarse-to-fine alternative to trying every unit scale and arc
+ * adjustment.  Every other arc adjustment is tried at the measured unit
+ * (and at the other scales only if none of them decodes), then the best
+ * reading climbs to the arc adjustments on either side, wrapping around
+ * to the next sector, and to the neighbouring unit scales, for as long
+ * as confidence improves.  The best arc adjustment can differ from one
+ * scale to the next, so the arcs are climbed again whenever the scale
+ * changes.  Only the unit scales stop once a reading reaches the
+ * scanner's decode stop fraction of MAX_CONFIDENCE: the arc
+ * adjustments are always searched, so the orientation keeps the
+ * resolution of the full search.
+ * Returns the best t (see readCode), or -1 if nothing decoded.
+ */
+   protected int searchCoarse(Scanner scanner, int[] steps) {
+      int arcs = SampleOffsets.ARCS;
+      int stop = (int)(scanner.getDecodeStopFraction() * MAX_CONFIDENCE);
+      int best = -1;
+      int maxc = 0;
+      int c, s, a;
+
+      // every other arc adjustment, measured unit first
+      for (int i = 0; i < COARSE_SCALES.length && maxc == 0; i++) {
+         s = COARSE_SCALES[i];
+         for (a = 0; a < arcs; a += 2) {
+            c = readCode(scanner, steps, s * arcs + a, maxc);
+            if (c > maxc) {
+               maxc = c;
+               best = s * arcs + a;
+            }
+         }
+      }
+      if (best < 0) return -1;
+
+      while (true) {
+         // climb the arc adjustments on either side of the best one; one
+         // below the first is the last of the sector before (the reading
+         // is the same, rotated by a sector)
+         s = best / arcs;
+         for (int d = -1; d <= 1; d += 2) {
+            for (int n = 1; n < arcs; n++) {
+               a = (best % arcs + d + arcs) % arcs;
+               c = readCode(scanner, steps, s * arcs + a, maxc);
+               if (c <= maxc) break;
+               maxc = c;
+               best = s * arcs + a;
+            }
+         }
+
+         // neighbouring unit scales, while confidence improves
+         a = best % arcs;
+         for (int d = -1; d <= 1 && maxc < stop; d += 2) {
+            for (int ns = s + d; ns >= 0 && ns < SampleOffsets.SCALES && maxc < stop; ns += d) {
+               c = readCode(scanner, steps, ns * arcs + a, maxc);
+               if (c <= maxc) break;
+               maxc = c;
+               best = ns * arcs + a;
+            }
+         }
+         if (best / arcs == s) break;   // arcs already climbed at this scale
+      }
+      return best;
+   }
+
+
+/**
+ * Same as readCode(scanner, steps, t, 0).
+ */
+   protected int readCode(Scanner scanner, int[] steps, int t) {
+      return readCode(scanner, steps, t, 0);
+   }
+
+
+/**
+ * Attempts to decode the binary pixels of an image into a code value,
+ * for the unit scale and arc adjustment t of the decoder's search
+ * (scale t / ARCS, adjustment t % ARCS), walking the samples in fixed
+ * point with the precomputed steps for the current unit (see
+ * SampleOffsets).  Returns the confidence of the reading, or 0 if it
+ * isn't a valid code.
  *
- * scanner - image scanner
- * unit    - width of a single ring (codes are 8 units wide)
- * arca    - Arc adjustment.  Rotation correction delta value.    
+ * best is the highest confidence found so far: the reading is abandoned
+ * (returning 0) as soon as the sectors left can't bring it above that.
+ * A sector whose rings don't show up fails the reading whatever the
+ * order they are read in, so the sectors spread around the symbol are
+ * read first (see SECTOR_ORDER).
  */
-   protected int readCode(Scanner scanner, float unit, float arca) {
+   protected int readCode(Scanner scanner, int[] steps, int t, int best) {
 
-      float dx, dy;  // direction vector
-      float dist;
+      int hx, hy;    // half sample step
+      int px, py;    // sample position (fixed point)
+      int cx = (int)Math.floor((double)x * SampleOffsets.ONE) + SampleOffsets.ONE / 2;
+      int cy = (int)Math.floor((double)y * SampleOffsets.ONE) + SampleOffsets.ONE / 2;
       int c = 0;
-      int sx, sy;
-      int bit, bits = 0;
+      int k, sector;
+      int bits = 0;
       this.code = -1;
 
-      for (int sector = SECTORS-1; sector >= 0; sector--) {
-         dx = (float)Math.cos(ARC * sector + arca);
-         dy = (float)Math.sin(ARC * sector + arca);
-      
+      for (int n = 0; n < SECTORS; n++) {
+         sector = SECTOR_ORDER[n];
+         k = (t * SECTORS + sector) * 2;
+         hx = steps[k];
+         hy = steps[k + 1];
+         px = cx - 7 * hx;
+         py = cy - 7 * hy;
+
          // Take 8 samples across the diameter of the symbol
          for (int i=0; i<WIDTH; i++) {
-            dist = (i - 3.5f) * unit;
-
-            sx = (int)Math.round(x + dx * dist);
-            sy = (int)Math.round(y + dy * dist);
-            core[i] = scanner.getSample3x3(sx, sy);
+            core[i] = scanner.getSample3x3(px >> SampleOffsets.SHIFT, py >> SampleOffsets.SHIFT);
+            px += hx + hx;
+            py += hy + hy;
          }
 
          // white rings
@@ -318,9 +545,12 @@ public class TopCode {
          // opposite data ring
          c += (0xff - Math.abs(core[0] * 2 - 0xff));
 
-         bit = (core[7] > 128)? 1 : 0;
-         bits <<= 1;
-         bits += bit;
+         if (core[7] > 128) bits |= 1 << sector;
+
+         // can't beat the best reading any more
+         if (c + (SECTORS - 1 - n) * MAX_SECTOR_CONFIDENCE <= best) {
+            return 0;
+         }
       }
 
       if (checksum(bits)) {
@@ -337,8 +567,7 @@ public class TopCode {
  * the lowest.  
  */
    protected int rotateLowest(int bits, float arca) {
-      int min = bits;
-      int mask = 0x1fff;
+      bits &= (WORDS - 1);
 
       // slightly overcorrect arc-adjustment
       // ideal correction would be (ARC / 2),
@@ -346,20 +575,8 @@ public class TopCode {
       // that falls out of the algorithm.
       arca -= (ARC * 0.65f);
       
-      this.orientation = 0;
-
-      for (int i=1; i<=SECTORS; i++) {
-
-         bits = (((bits << 1) & mask) |
-                 (bits >> (SECTORS - 1)));
-         if (bits < min) { 
-            min = bits;
-            this.orientation = (i * -ARC);
-         }
-      }
-
-      this.orientation += arca;
-      return min;
+      this.orientation = (ROTATION[bits] * -ARC) + arca;
+      return LOWEST[bits];
    }
    
    
@@ -367,15 +584,23 @@ public class TopCode {
  * Only codes with a checksum of 5 are valid
  */
    protected boolean checksum(int bits) {
-      int sum = 0;
-      for (int i=0; i<SECTORS; i++) {
-         sum += (bits & 0x01);
-         bits = bits >> 1;
-      }
-      return (sum == 5);
+      return VALID[bits & (WORDS - 1)];
    }
 
    
+/**
+ * Copies the code, location, unit and orientation of another topcode.
+ */
+   public void copyFrom(TopCode other) {
+      this.code = other.code;
+      this.x = other.x;
+      this.y = other.y;
+      this.unit = other.unit;
+      this.measuredUnit = other.measuredUnit;
+      this.orientation = other.orientation;
+   }
+
+
 /**
  * Returns true if the given point is inside the bulls-eye
  */
@@ -395,6 +620,7 @@ public class TopCode {
       int sy = (int)Math.round(y);
       int iwidth = scanner.getImageWidth();
       int iheight = scanner.getImageHeight();
+      int limit = scanner.getUnitSearchLimit();
 
       boolean whiteL = true;
       boolean whiteR = true;
@@ -406,7 +632,7 @@ public class TopCode {
       for (int i=1; true; i++) {
          if (sx - i < 1 || sx + i >= iwidth - 1 ||
              sy - i < 1 || sy + i >= iheight - 1 ||
-             i > 100) {
+             i > limit) {
             return -1;
          }
 
@@ -452,7 +678,8 @@ public class TopCode {
 
          if (distR > 0 && distL > 0 && distU > 0 && distD > 0) {
             float u = (distR + distL + distU + distD) / 8.0f;
-            if (Math.abs(distR + distL - distU - distD) > u) {
+            if (Math.abs(distR + distL - distU - distD) > u ||
+                u < scanner.getMinUnit()) {
                return -1;
             } else {
                return u;
@@ -616,27 +843,9 @@ public class TopCode {
  * Generates a list of all valid TopCodes
  */
    public static TopCode [] generateCodes() {
-
-      int n = 99, base = 0; 
-      TopCode [] list = new TopCode[n];
-      TopCode code = new TopCode();
-
-      int bits;
-      int count = 0;
-      
-      while (count < n) {
-         bits = code.rotateLowest(base, 0);
-
-         // Found a valid code
-         if (bits == base && code.checksum(bits)) {
-            code.setCode(bits);
-            code.setOrientation(0);
-            list[count++] = code;
-            code = new TopCode();
-         }
-
-         // Try next value
-         base++;
+      TopCode [] list = new TopCode[CODES.length];
+      for (int i=0; i<CODES.length; i++) {
+         list[i] = new TopCode(CODES[i]);
       }
       return list;
    }
@@ -52,6 +52,19 @@ public abstract class TopCodeDetector {
 	
 	private static int FRAMES_ADJUTS_INTERSPOT_DISTANCE = 60; //after 60 frames we compute the interspot distance again
 	
+	/* Tracking: when enabled only padded windows around the markers of the previous frame are scanned,
+	 * with a full scan every fullScanInterval frames or as soon as a tracked marker is lost */
+	private boolean trackingEnabled = false;
+	private int fullScanInterval = 15;
+	private double trackingMargin = 1.0; //window padding around a marker, in marker diameters
+	private int framesSinceFullScan = 0;
+	private List<TopCode> trackedMarkers = new ArrayList<TopCode>();
+	private List<Rect> trackingWindows = new ArrayList<Rect>();
+	
+	/* Spatial index of the markers of the current frame, for neighbour queries */
+	private TopCodeGrid markerGrid = new TopCodeGrid();
+	private List<TopCode> neighbours = new ArrayList<TopCode>();
+	
 	/*When the topcodes are in horizontal position the orientation of the spots is -4 degrees or -0.07249829 radians*/
 	private static int HORIZONTAL_INITIAL_ROTATION_DEGREES = -4;
 	private static float HORIZONTAL_INITIAL_ROTATION_RADIANS = -0.07249829f;
@@ -90,23 +103,217 @@ public abstract class TopCodeDetector {
 	
 	
 	
+	/**
+	 * Enables or disables the tracking-guided partial scans. While enabled, each frame is only 
+	 * thresholded and searched in padded windows around the markers found in the previous frame.
+	 * A full scan is done every fullScanInterval frames (to pick up new markers), and immediately 
+	 * whenever a tracked marker is not found again in its window.
+	 * When the scanner recycles its results (Scanner.setRecycleResults), the markers of a partial 
+	 * scan are copies made by the detector and stay valid across frames.
+	 * @param enabled
+	 * @param fullScanInterval number of frames between two full scans
+	 */
+	public void setTracking(boolean enabled, int fullScanInterval){
+		this.trackingEnabled = enabled;
+		this.fullScanInterval = Math.max(1, fullScanInterval);
+		this.trackedMarkers.clear();
+	}
+	
+	public boolean isTrackingEnabled(){
+		return this.trackingEnabled;
+	}
+	
+	/**
+	 * Sets the padding added on every side of a tracked marker, in marker diameters (default 1).
+	 * It has to cover the motion between two frames plus the warm up of the adaptive threshold.
+	 */
+	public void setTrackingMargin(double margin){
+		this.trackingMargin = margin;
+	}
+	
+	/**
+	 * Scans a packed RGB frame, or a window of it starting at offset, honouring the tracking mode. 
+	 * Markers are located relative to the window.
+	 * @param factors sensitivity factors of the threshold filter, or null for the scanner's default
+	 */
+	protected List<TopCode> scanFrame(int[] rgb, int offset, int width, int height, int stride, double[] factors){
+		return scanFrame(rgb, offset, stride, null, 0, 0, width, height, factors);
+	}
+	
+	/**
+	 * Same as scanFrame(int[], int, int, int, int, double[]) for the window (x, y, width, height) 
+	 * of a frame in any PixelFormat.
+	 */
+	protected List<TopCode> scanFrame(FrameSource frame, int x, int y, int width, int height, double[] factors){
+		return scanFrame(null, 0, 0, frame, x, y, width, height, factors);
+	}
+	
+	private List<TopCode> scanFrame(int[] rgb, int offset, int stride, FrameSource frame, 
+			int x, int y, int width, int height, double[] factors){
+		List<TopCode> found;
+		if(trackingEnabled && framesSinceFullScan < fullScanInterval && !trackedMarkers.isEmpty()){
+			computeTrackingWindows(width, height);
+			found = new ArrayList<TopCode>();
+			for(Rect window : trackingWindows){
+				List<TopCode> spots = scanWindow(rgb, offset, stride, frame, 
+						x + window.x, y + window.y, window.width, window.height, factors);
+				for(TopCode spot : spots){
+					TopCode marker = keep(spot);
+					marker.setLocation(marker.getCenterX() + window.x, marker.getCenterY() + window.y);
+					found.add(marker);
+				}
+			}
+			if(allTracked(found)){
+				framesSinceFullScan++;
+				trackedMarkers = new ArrayList<TopCode>(found);
+				return found;
+			}
+			//a tracked marker got lost (occluded, moved too fast...), fall back to a full scan of this frame 
+		}
+		found = scanWindow(rgb, offset, stride, frame, x, y, width, height, factors);
+		framesSinceFullScan = 0;
+		if(trackingEnabled){
+			trackedMarkers = new ArrayList<TopCode>(found.size());
+			for(TopCode spot : found){
+				trackedMarkers.add(keep(spot));
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns a topcode that outlives the next scan. With setRecycleResults(true) every scan refills 
+	 * the same list with the same topcodes, so the spots of a tracking window, and the markers tracked 
+	 * into the next frame, are copies; otherwise the spot itself is kept.
+	 */
+	private TopCode keep(TopCode spot){
+		if(!scanner.isRecycleResults()){
+			return spot;
+		}
+		TopCode copy = new TopCode();
+		copy.copyFrom(spot);
+		return copy;
+	}
+	
+	private List<TopCode> scanWindow(int[] rgb, int offset, int stride, FrameSource frame, 
+			int x, int y, int width, int height, double[] factors){
+		if(rgb!=null){
+			int start = offset + y*stride + x;
+			return factors==null ? scanner.scan(rgb, start, width, height, stride, false)
+					: scanner.scan(rgb, start, width, height, stride, factors, false);
+		}else{
+			return scanner.scan(frame, x, y, width, height, factors, false);
+		}
+	}
+	
+	/**
+	 * Builds the padded windows around the tracked markers, clipped to the frame. 
+	 * Overlapping windows are merged so that no marker is decoded twice.
+	 */
+	private void computeTrackingWindows(int width, int height){
+		trackingWindows.clear();
+		for(TopCode marker : trackedMarkers){
+			int r = (int)Math.ceil(marker.getDiameter()*(0.5 + trackingMargin));
+			int x0 = Math.max(0, (int)marker.getCenterX() - r);
+			int y0 = Math.max(0, (int)marker.getCenterY() - r);
+			int x1 = Math.min(width, (int)marker.getCenterX() + r + 1);
+			int y1 = Math.min(height, (int)marker.getCenterY() + r + 1);
+			if(x1>x0 && y1>y0){
+				trackingWindows.add(new Rect(x0, y0, x1-x0, y1-y0));
+			}
+		}
+		boolean merged = true;
+		while(merged){
+			merged = false;
+			for(int i=0;i<trackingWindows.size() && !merged;i++){
+				Rect a = trackingWindows.get(i);
+				for(int j=i+1;j<trackingWindows.size();j++){
+					Rect b = trackingWindows.get(j);
+					if(a.x < b.x+b.width && b.x < a.x+a.width && a.y < b.y+b.height && b.y < a.y+a.height){
+						int x0 = Math.min(a.x, b.x), y0 = Math.min(a.y, b.y);
+						int x1 = Math.max(a.x+a.width, b.x+b.width), y1 = Math.max(a.y+a.height, b.y+b.height);
+						trackingWindows.set(i, new Rect(x0, y0, x1-x0, y1-y0));
+						trackingWindows.remove(j);
+						merged = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks that every tracked marker was found again near its previous position
+	 */
+	private boolean allTracked(List<TopCode> found){
+		indexMarkers(found);
+		for(TopCode marker : trackedMarkers){
+			boolean seen = false;
+			neighbours.clear();
+			markerGrid.near(marker.getCenterX(), marker.getCenterY(), 
+					(float)(marker.getDiameter()*(0.5 + trackingMargin)), neighbours);
+			for(TopCode spot : neighbours){
+				if(spot.getCode()==marker.getCode()){
+					seen = true;
+					break;
+				}
+			}
+			if(!seen){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Indexes the given markers in markerGrid, with cells about twice their average diameter
+	 */
+	private void indexMarkers(List<TopCode> markers){
+		if(markers.isEmpty()){
+			markerGrid.reset(0, 0, 1, 1, 1);
+			return;
+		}
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		float diameter = 0;
+		for(TopCode marker : markers){
+			minX = Math.min(minX, marker.getCenterX());
+			minY = Math.min(minY, marker.getCenterY());
+			maxX = Math.max(maxX, marker.getCenterX());
+			maxY = Math.max(maxY, marker.getCenterY());
+			diameter += marker.getDiameter();
+		}
+		diameter /= markers.size();
+		markerGrid.reset((int)minX, (int)minY, (int)(maxX - minX) + 1, (int)(maxY - minY) + 1, 
+				Math.max(8, (int)(2*diameter)));
+		for(TopCode marker : markers){
+			markerGrid.add(marker);
+		}
+	}
+	
+	/**
+	 * Returns the markers of the current frame whose centers are within radius of (x,y). 
+	 * Uses the spatial index built before the blocks are assembled.
+	 */
+	public List<TopCode> getMarkersNear(float x, float y, float radius){
+		return markerGrid.near(x, y, radius, new ArrayList<TopCode>());
+	}
+	
+	/**
+	 * Moves the markers into groupedMarkers, one list per code in the order they were found
+	 */
 	protected void groupMarkers(){
+		indexMarkers(this.markers);
 		this.groupedMarkers.clear();
-		for(Iterator<TopCode> iter = this.markers.iterator();iter.hasNext();){
-			TopCode marker = iter.next();
-			List<TopCode> list = new ArrayList<TopCode>();
-			list.add(marker);
-			iter.remove();
-			for(Iterator<TopCode> iter2 = this.markers.iterator();iter2.hasNext();){
-				TopCode marker2 = iter2.next();
-				if(marker2.getCode() == marker.getCode()){
-					list.add(marker2);
-					iter2.remove();
-				}
+		for(TopCode marker : this.markers){
+			Integer code = Integer.valueOf(marker.getCode());
+			List<TopCode> list = this.groupedMarkers.get(code);
+			if(list==null){
+				list = new ArrayList<TopCode>();
+				this.groupedMarkers.put(code, list);
 			}
-			iter=this.markers.iterator();
-			this.groupedMarkers.put(Integer.valueOf(marker.getCode()), list);
+			list.add(marker);
 		}
+		this.markers.clear();
 		if(!interspot_distance_computed){
 			this.interspot_distance = computeInterspotDistance(this.groupedMarkers);
 		}
@@ -122,18 +329,19 @@ public abstract class TopCodeDetector {
 			//we need at least 2 spots to compute their distance and the block has to be complete, i.e all the spots visibles
 			if(spotList!=null && size>1 && BlocksMarkersMap.belongsToBlockClass(size, entry.getKey())){	
 				double d = 0;
-				TopCode spot1=null,spot2=null;
 				float unit = 0;
-				for(int i=0;i<spotList.size()-1;i++){
-					spot1 = spotList.get(i);
-					spot2 = spotList.get(i+1);
-					unit+= spot1.unit;
-					d+=getDistance(spot1, spot2);
+				int count = 0;
+				for(TopCode spot : spotList){
+					unit+= spot.unit;
+					double nearest = getNearestSpotDistance(spot);
+					if(nearest>0){
+						d+=nearest;
+						count++;
+					}
 				}
-				unit+=spot2.unit;
 				unit/=spotList.size();
-				if(d>0){
-					d/= (spotList.size()-1);
+				if(count>0){
+					d/= count;
 					d/=unit;
 					distances.add(d);
 				}
@@ -153,6 +361,27 @@ public abstract class TopCodeDetector {
 	}
 
 	
+	/**
+	 * Distance from spot to the nearest other spot of the same code, looking up to 
+	 * twice the current interspot distance away. Returns 0 if there is none.
+	 * The spots of a block are not sorted along it, so neighbours in the list need not be 
+	 * neighbours in the block.
+	 */
+	private double getNearestSpotDistance(TopCode spot){
+		neighbours.clear();
+		markerGrid.near(spot.x, spot.y, (float)(2*interspot_distance*spot.unit), neighbours);
+		double nearest = 0;
+		for(TopCode other : neighbours){
+			if(other!=spot && other.getCode()==spot.getCode()){
+				double d = getDistance(spot, other);
+				if(nearest==0 || d<nearest){
+					nearest = d;
+				}
+			}
+		}
+		return nearest;
+	}
+	
 	protected void computeSingleMarkersBlocks(){
 		this.blocks.clear();
 		ArrayList<TopCode> accumulatedSpots = new ArrayList<TopCode>();
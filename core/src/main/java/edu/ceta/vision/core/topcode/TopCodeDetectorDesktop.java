@@ -4,6 +4,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 import javax.imageio.ImageIO;
@@ -136,7 +137,11 @@ public class TopCodeDetectorDesktop extends TopCodeDetector{
 	 */
 	public Set<Block> detectBlocks(BufferedImage rgbaImage) {
 		this.image=rgbaImage.getSubimage(this.detectionZone.x, this.detectionZone.y, this.detectionZone.width, this.detectionZone.height);
-		this.markers = ((ScannerDesktop)this.scanner).scan(image);
+		if(isTrackingEnabled()){
+			this.markers = scanZone(rgbaImage);
+		}else{
+			this.markers = ((ScannerDesktop)this.scanner).scan(image);
+		}
 		if(multiple_markers_per_block){
 	        groupMarkers();
 	        computeMultiMarkersBlocks();
@@ -146,6 +151,19 @@ public class TopCodeDetectorDesktop extends TopCodeDetector{
         return this.blocks;
 	}
 	
+	/**
+	 * Scans the detection zone of the image with the tracking scanFrame, 
+	 * reading its pixels in place when ScannerDesktop.wrapImage can.
+	 */
+	private List<TopCode> scanZone(BufferedImage rgbaImage){
+		int w = detectionZone.width, h = detectionZone.height;
+		ScannerDesktop.RasterInput input = getScanner().wrapImage(rgbaImage, detectionZone.x, detectionZone.y, w, h);
+		if(input.frame!=null){
+			return scanFrame(input.frame, 0, 0, w, h, null);
+		}
+		return scanFrame(input.rgb, input.offset, w, h, input.stride, null);
+	}
+	
 	public synchronized Set<Block> detectBlocks(String file){
 		try {
 			this.markers = ((ScannerDesktop)this.scanner).scan(file);
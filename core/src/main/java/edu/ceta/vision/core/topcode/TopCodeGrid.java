@@ -0,0 +1,133 @@
+package edu.ceta.vision.core.topcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uniform grid index of topcodes over a rectangular area.  Every code is
+ * stored in the cell holding its center, so that "is this point inside
+ * a bullseye" and "which codes are near this point" only look at a few
+ * cells instead of every code found so far.  The cell size should be
+ * about the size of the codes (a few units).
+ *
+ * The grid keeps its arrays from one reset() to the next, so reusing it
+ * frame after frame allocates nothing once it has grown.
+ */
+public class TopCodeGrid {
+
+	/** Top-left corner of the indexed area */
+	protected int x0, y0;
+	
+	/** Number of columns and rows of cells */
+	protected int cols, rows;
+	
+	/** Side of a cell in pixels */
+	protected int cell;
+	
+	/** First code of every cell (index in codes), or -1 */
+	private int[] heads = new int[0];
+	
+	/** Next code in the same cell (index in codes), or -1 */
+	private int[] next = new int[16];
+	
+	/** Indexed codes */
+	private List<TopCode> codes = new ArrayList<TopCode>();
+	
+	/** Largest bullseye radius (unit) of the indexed codes */
+	private float maxUnit;
+	
+	
+	/**
+	 * Empties the grid and makes it cover the area (x, y, width, height)
+	 * with cells of the given side.  Codes outside the area are kept in
+	 * the border cells.
+	 */
+	public void reset(int x, int y, int width, int height, int cellSize) {
+		this.cell = Math.max(1, cellSize);
+		this.x0 = x;
+		this.y0 = y;
+		this.cols = Math.max(1, (width + cell - 1) / cell);
+		this.rows = Math.max(1, (height + cell - 1) / cell);
+		if (heads.length < cols * rows) {
+			this.heads = new int[cols * rows];
+		}
+		java.util.Arrays.fill(heads, 0, cols * rows, -1);
+		codes.clear();
+		this.maxUnit = 0;
+	}
+	
+	/**
+	 * Adds a code to the grid
+	 */
+	public void add(TopCode code) {
+		int n = codes.size();
+		if (n == next.length) {
+			this.next = java.util.Arrays.copyOf(next, n * 2);
+		}
+		int c = cellOf(code.getCenterX(), code.getCenterY());
+		next[n] = heads[c];
+		heads[c] = n;
+		codes.add(code);
+		maxUnit = Math.max(maxUnit, code.unit);
+	}
+	
+	/**
+	 * Number of codes in the grid
+	 */
+	public int size() {
+		return codes.size();
+	}
+	
+	/**
+	 * Returns true if (x,y) is inside the bullseye of a code of the grid
+	 */
+	public boolean inBullsEye(float x, float y) {
+		if (codes.isEmpty()) return false;
+		int cx0 = col(x - maxUnit), cx1 = col(x + maxUnit);
+		int cy0 = row(y - maxUnit), cy1 = row(y + maxUnit);
+		for (int r=cy0; r<=cy1; r++) {
+			for (int c=cx0; c<=cx1; c++) {
+				for (int k=heads[r * cols + c]; k>=0; k=next[k]) {
+					if (codes.get(k).inBullsEye(x, y)) return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds to out every code whose center is within radius of (x,y), and
+	 * returns out.
+	 */
+	public List<TopCode> near(float x, float y, float radius, List<TopCode> out) {
+		if (codes.isEmpty()) return out;
+		int cx0 = col(x - radius), cx1 = col(x + radius);
+		int cy0 = row(y - radius), cy1 = row(y + radius);
+		float r2 = radius * radius;
+		for (int r=cy0; r<=cy1; r++) {
+			for (int c=cx0; c<=cx1; c++) {
+				for (int k=heads[r * cols + c]; k>=0; k=next[k]) {
+					TopCode code = codes.get(k);
+					float dx = code.getCenterX() - x;
+					float dy = code.getCenterY() - y;
+					if (dx * dx + dy * dy <= r2) out.add(code);
+				}
+			}
+		}
+		return out;
+	}
+	
+	private int cellOf(float x, float y) {
+		return row(y) * cols + col(x);
+	}
+	
+	private int col(float x) {
+		int c = (int)Math.floor((x - x0) / cell);
+		return (c < 0) ? 0 : (c >= cols) ? cols - 1 : c;
+	}
+	
+	private int row(float y) {
+		int r = (int)Math.floor((y - y0) / cell);
+		return (r < 0) ? 0 : (r >= rows) ? rows - 1 : r;
+	}
+}
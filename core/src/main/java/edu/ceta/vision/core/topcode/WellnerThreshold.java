@@ -0,0 +1,86 @@
+package edu.ceta.vision.core.topcode;
+
+/**
+ * Wellner adaptive thresholding, the scanner's default strategy.  Rows
+ * are processed back and forth (alternating left-to-right and
+ * right-to-left) keeping a running average of the last s pixels, which
+ * is blended with the average of the previous row at the same column.
+ *
+ * "Adaptive Thresholding for the DigitalDesk"   
+ * EuroPARC Technical Report EPC-93-110
+ */
+public class WellnerThreshold implements ThresholdStrategy {
+
+	/** Length (in pixels) of the running sum */
+	protected int s;
+	
+	/** Rows re-processed above a band so the running sum converges */
+	protected int overlap;
+	
+	
+	public WellnerThreshold() {
+		this(30, 2);
+	}
+	
+	/**
+	 * @param s length in pixels of the running average
+	 * @param overlap warm-up rows processed above every band but the 
+	 * 				first one, so the running sum has converged when the
+	 * 				band's own rows are reached
+	 */
+	public WellnerThreshold(int s, int overlap) {
+		this.s = s;
+		this.overlap = overlap;
+	}
+	
+	
+	public void prepare(Scanner scanner) {
+		// Nothing to precompute, the filter works row by row
+	}
+	
+	
+	/**
+	 * Runs the filter over rows [from, to).  The running sum is carried
+	 * from row to row, so a band other than the first one starts a few
+	 * rows earlier; those warm-up rows only feed the running sum.  The
+	 * scratch buffer holds the previous row's running sums.
+	 */
+	public int threshold(Scanner scanner, int from, int to, 
+			int[] lum, int[] thresh, int[] sums) {
+		int w = scanner.getImageWidth();
+		int sum = 128;
+		int count = 0;
+		int start = Math.max(0, from - overlap);
+		int x, dx;
+		
+		for (int j=start; j<to; j++) {
+			scanner.readIntensities(j, lum);
+			x = (j % 2 == 0) ? 0 : w-1;
+			dx = (j % 2 == 0) ? 1 : -1;
+			
+			for (int i=0; i<w; i++) {
+				//----------------------------------------
+				// Calculate sum as an approximate sum
+				// of the last s pixels
+				//----------------------------------------
+				sum += lum[x] - (sum / s);
+				
+				//----------------------------------------
+				// Factor in sum from the previous row
+				//----------------------------------------
+				if (j > start) {
+					thresh[x] = (sum + sums[x]) / (2*s);
+				} else {
+					thresh[x] = sum / s;
+				}
+				sums[x] = sum;
+				x += dx;
+			}
+			
+			if (j >= from) {
+				count += scanner.binarizeRow(j, lum, thresh);
+			}
+		}
+		return count;
+	}
+}
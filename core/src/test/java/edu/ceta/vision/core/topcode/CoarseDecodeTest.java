@@ -0,0 +1,59 @@
+package edu.ceta.vision.core.topcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The coarse-to-fine decode search must read the codes the full search
+ * reads, oriented to within one arc adjustment of it.
+ */
+public class CoarseDecodeTest {
+
+	@Test
+	public void defaultStopMatchesFullSearch() {
+		checkCoarse(0.9f);
+	}
+
+	@Test
+	public void noStopMatchesFullSearch() {
+		checkCoarse(1.0f);
+	}
+
+	private void checkCoarse(float stop) {
+		ScannerDesktop full = new ScannerDesktop();
+		ScannerDesktop coarse = new ScannerDesktop();
+		coarse.setCoarseDecode(true);
+		coarse.setDecodeStopFraction(stop);
+		double tolerance = SampleOffsets.getArc(1) + 1e-3;
+		for (long seed=1; seed<=5; seed++) {
+			BufferedImage image = SyntheticFrames.frame(1280, 720, seed);
+			List<TopCode> expected = new ArrayList<TopCode>(full.scan(image));
+			List<TopCode> found = coarse.scan(image);
+			assertFalse(expected.isEmpty());
+			assertEquals("seed " + seed, expected.size(), found.size());
+			for (TopCode e : expected) {
+				TopCode c = find(found, e.getCenterX(), e.getCenterY());
+				assertNotNull("seed " + seed + ", no code at " + e.getCenterX() + "," + e.getCenterY(), c);
+				assertEquals(e.getCode(), c.getCode());
+				double d = Math.abs(c.getOrientation() - e.getOrientation()) % (2 * Math.PI);
+				d = Math.min(d, 2 * Math.PI - d);
+				assertTrue("seed " + seed + ", code " + e.getCode() + " turned " + d, d <= tolerance);
+			}
+		}
+	}
+
+	private static TopCode find(List<TopCode> codes, float x, float y) {
+		for (TopCode code : codes) {
+			if (code.getCenterX() == x && code.getCenterY() == y) return code;
+		}
+		return null;
+	}
+}
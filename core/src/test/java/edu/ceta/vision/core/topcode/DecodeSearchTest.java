@@ -0,0 +1,115 @@
+package edu.ceta.vision.core.topcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The bounds that cut the decoder's search short must not change what
+ * it finds: on noisy, blurred frames and on a marker with a speck on a
+ * ring, the scanner has to find exactly what a plain search reading all
+ * 13 sectors of every unit scale and arc adjustment finds.
+ */
+public class DecodeSearchTest {
+
+	@Test
+	public void boundedSearchMatchesPlainSearch() {
+		for (long seed=1; seed<=6; seed++) {
+			BufferedImage image = SyntheticFrames.noisyFrame(1280, 720, seed);
+			List<String> expected = SyntheticFrames.describe(new PlainScanner().scan(image));
+			assertFalse(expected.isEmpty());
+			assertEquals("seed " + seed, expected, SyntheticFrames.describe(new ScannerDesktop().scan(image)));
+		}
+	}
+
+	@Test
+	public void speckOnRingDoesNotHideMarker() {
+		int code = TopCode.generateCodes()[10].getCode();
+		int readable = 0;
+		for (int i=0; i<26; i++) {
+			float orientation = (float)(i * Math.PI * 2 / 26);
+			BufferedImage image = speckledMarker(code, orientation);
+			List<String> expected = SyntheticFrames.describe(new PlainScanner().scan(image));
+			if (expected.isEmpty()) continue;   // the speck covers every arc adjustment
+			readable++;
+			assertEquals("orientation " + orientation, expected, 
+					SyntheticFrames.describe(new ScannerDesktop().scan(image)));
+		}
+		assertTrue(readable >= 8);
+	}
+
+	/**
+	 * A 48 pixel code with a 5x5 black speck on its outer white ring,
+	 * straight left of the center.
+	 */
+	private static BufferedImage speckledMarker(int code, float orientation) {
+		BufferedImage image = SyntheticFrames.marker(code, 48, orientation);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLACK);
+		g.fillRect(100 - 15 - 2, 100 - 2, 5, 5);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Scanner decoding with PlainTopCode.
+	 */
+	static class PlainScanner extends ScannerDesktop {
+		protected TopCode newTopCode() {
+			return new PlainTopCode();
+		}
+	}
+
+	/**
+	 * Tries every unit scale and arc adjustment, reading every sector
+	 * whatever the best reading so far.
+	 */
+	static class PlainTopCode extends TopCode {
+
+		private int[] samples = new int[WIDTH];
+
+		protected int search(Scanner scanner) {
+			int[] steps = scanner.offsets.get(unit);
+			int maxc = 0, maxt = 0;
+			for (int t=0; t<SampleOffsets.SCALES * SampleOffsets.ARCS; t++) {
+				int c = readCode(scanner, steps, t, 0);
+				if (c > maxc) {
+					maxc = c;
+					maxt = t;
+				}
+			}
+			return (maxc > 0) ? finish(scanner, steps, maxt) : -1;
+		}
+
+		protected int readCode(Scanner scanner, int[] steps, int t, int best) {
+			int cx = (int)Math.floor((double)x * SampleOffsets.ONE) + SampleOffsets.ONE / 2;
+			int cy = (int)Math.floor((double)y * SampleOffsets.ONE) + SampleOffsets.ONE / 2;
+			int c = 0, bits = 0;
+			boolean valid = true;
+			this.code = -1;
+			for (int sector=SECTORS-1; sector>=0; sector--) {
+				int k = (t * SECTORS + sector) * 2;
+				for (int i=0; i<WIDTH; i++) {
+					samples[i] = scanner.getSample3x3((cx + (2*i - 7) * steps[k]) >> SampleOffsets.SHIFT,
+							(cy + (2*i - 7) * steps[k + 1]) >> SampleOffsets.SHIFT);
+				}
+				valid &= samples[1] > 128 && samples[3] > 128 && samples[4] > 128 && samples[6] > 128 &&
+						samples[2] <= 128 && samples[5] <= 128;
+				c += samples[1] + samples[3] + samples[4] + samples[6] + 
+						(0xff - samples[2]) + (0xff - samples[5]) +
+						Math.abs(samples[7] * 2 - 0xff) + (0xff - Math.abs(samples[0] * 2 - 0xff));
+				bits = (bits << 1) + ((samples[7] > 128) ? 1 : 0);
+			}
+			if (!valid || !checksum(bits)) return 0;
+			this.code = bits;
+			return c;
+		}
+	}
+}
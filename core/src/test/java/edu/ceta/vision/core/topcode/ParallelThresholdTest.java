@@ -0,0 +1,55 @@
+package edu.ceta.vision.core.topcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The parallel threshold filter must find exactly what the serial one
+ * finds.
+ */
+public class ParallelThresholdTest {
+
+	private static final double[] FACTORS = { 0.85, 0.7 };
+
+	@Test
+	public void wellnerBandsMatchSerialFilter() {
+		checkThreads(new ScannerDesktop(), new ScannerDesktop(), null);
+	}
+
+	@Test
+	public void severalFactorsMatchSerialFilter() {
+		checkThreads(new ScannerDesktop(), new ScannerDesktop(), FACTORS);
+	}
+
+	@Test
+	public void bradleyBandsMatchSerialFilter() {
+		ScannerDesktop serial = new ScannerDesktop();
+		ScannerDesktop parallel = new ScannerDesktop();
+		serial.setThresholdStrategy(new BradleyThreshold());
+		parallel.setThresholdStrategy(new BradleyThreshold());
+		checkThreads(serial, parallel, null);
+	}
+
+	private void checkThreads(ScannerDesktop serial, ScannerDesktop parallel, double[] factors) {
+		serial.setThresholdThreads(1);
+		for (int threads=2; threads<=4; threads++) {
+			parallel.setThresholdThreads(threads);
+			for (long seed=1; seed<=3; seed++) {
+				BufferedImage image = SyntheticFrames.frame(1280, 720, seed);
+				List<String> expected = SyntheticFrames.describe(scan(serial, image, factors));
+				assertFalse(expected.isEmpty());
+				assertEquals(threads + " threads, seed " + seed, expected,
+						SyntheticFrames.describe(scan(parallel, image, factors)));
+			}
+		}
+	}
+
+	private List<TopCode> scan(ScannerDesktop scanner, BufferedImage image, double[] factors) {
+		return (factors == null) ? scanner.scan(image) : scanner.scan(image, factors);
+	}
+}
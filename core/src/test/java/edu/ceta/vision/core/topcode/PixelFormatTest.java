@@ -0,0 +1,142 @@
+package edu.ceta.vision.core.topcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Every PixelFormat read in place must find exactly what the packed
+ * ARGB int[] path finds in the same pixels.
+ */
+public class PixelFormatTest {
+
+	private static final int WIDTH = 640, HEIGHT = 480;
+
+	/** Bytes of padding at the end of every row of the byte frames */
+	private static final int PADDING = 12;
+
+	private int[] argb;
+
+	private List<String> expected;
+
+	@Before
+	public void scanArgb() {
+		argb = SyntheticFrames.frame(WIDTH, HEIGHT, 7).getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+		Random random = new Random(7);
+		for (int i=0; i<argb.length; i++) {   // the alpha byte must be ignored
+			argb[i] = (argb[i] & 0xffffff) | (random.nextInt(256) << 24);
+		}
+		expected = SyntheticFrames.describe(new ScannerDesktop().scan(argb, WIDTH, HEIGHT));
+		assertFalse(expected.isEmpty());
+	}
+
+	@Test
+	public void gray8() {
+		check(PixelFormat.GRAY8);
+	}
+
+	@Test
+	public void nv21() {
+		check(PixelFormat.NV21);
+	}
+
+	@Test
+	public void bgr() {
+		check(PixelFormat.BGR);
+	}
+
+	@Test
+	public void rgb() {
+		check(PixelFormat.RGB);
+	}
+
+	@Test
+	public void rgba() {
+		check(PixelFormat.RGBA);
+	}
+
+	@Test
+	public void bgra() {
+		check(PixelFormat.BGRA);
+	}
+
+	@Test
+	public void argb() {
+		check(PixelFormat.ARGB);
+	}
+
+	@Test
+	public void abgr() {
+		check(PixelFormat.ABGR);
+	}
+
+	private void check(PixelFormat format) {
+		int stride = WIDTH * format.getBytesPerPixel() + PADDING;
+		byte[] frame = encode(format, stride);
+
+		ScannerDesktop scanner = new ScannerDesktop();
+		assertEquals(format + " array", expected, SyntheticFrames.describe(
+				scanner.scan(new FrameSource(frame, 0, WIDTH, HEIGHT, stride, format))));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+		direct.put(frame).rewind();
+		assertEquals(format + " buffer", expected, SyntheticFrames.describe(
+				scanner.scan(direct, WIDTH, HEIGHT, stride, format)));
+	}
+
+	/**
+	 * The ARGB pixels in the given format.  Gray frames get the intensity
+	 * the int[] path computes, and NV21 frames a chroma plane after it.
+	 */
+	private byte[] encode(PixelFormat format, int stride) {
+		int size = HEIGHT * stride;
+		if (format == PixelFormat.NV21) size += HEIGHT / 2 * stride;
+		byte[] frame = new byte[size];
+		new Random(11).nextBytes(frame);   // padding and chroma are noise
+
+		for (int j=0; j<HEIGHT; j++) {
+			for (int i=0; i<WIDTH; i++) {
+				int pixel = argb[j * WIDTH + i];
+				int a = pixel >>> 24, r = (pixel >> 16) & 0xff, g = (pixel >> 8) & 0xff, b = pixel & 0xff;
+				int k = j * stride + i * format.getBytesPerPixel();
+				switch (format) {
+				case GRAY8:
+				case NV21:
+					frame[k] = (byte)((r + g + b) / 3);
+					break;
+				case BGR:
+					put(frame, k, b, g, r);
+					break;
+				case RGB:
+					put(frame, k, r, g, b);
+					break;
+				case RGBA:
+					put(frame, k, r, g, b, a);
+					break;
+				case BGRA:
+					put(frame, k, b, g, r, a);
+					break;
+				case ARGB:
+					put(frame, k, a, r, g, b);
+					break;
+				case ABGR:
+					put(frame, k, a, b, g, r);
+					break;
+				}
+			}
+		}
+		return frame;
+	}
+
+	private static void put(byte[] frame, int k, int... values) {
+		for (int v : values) {
+			frame[k++] = (byte)v;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package edu.ceta.vision.core.topcode;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Kernel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test frames with a grid of topcodes of random codes, sizes and
+ * orientations drawn over an uneven background, with some clutter and
+ * pixel noise.  The same seed always draws the same frame.
+ */
+public class SyntheticFrames {
+
+	/**
+	 * Draws a frame of the given size in 3-byte BGR format.
+	 */
+	public static BufferedImage frame(int w, int h, long seed) {
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setPaint(new GradientPaint(0, 0, new Color(235, 235, 225), w, h, new Color(120, 120, 110)));
+		g.fillRect(0, 0, w, h);
+		g.setColor(Color.DARK_GRAY);
+		for (int i=0; i<6; i++) {
+			g.fillRect(20, 30 + i * 9, 200, 4);
+		}
+
+		TopCode[] codes = TopCode.generateCodes();
+		Random random = new Random(seed);
+		for (int y=60; y+60<h; y+=90) {
+			for (int x=60; x+60<w; x+=100) {
+				TopCode code = new TopCode(codes[random.nextInt(codes.length)].getCode());
+				code.setLocation(x + random.nextInt(10), y + random.nextInt(10));
+				code.setDiameter(30 + random.nextInt(30));
+				code.setOrientation((float)(random.nextDouble() * Math.PI * 2));
+				code.drawDesktop(g);
+			}
+		}
+		g.dispose();
+
+		byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+		for (int i=0; i<data.length; i++) {
+			int v = (data[i] & 0xff) + random.nextInt(21) - 10;
+			data[i] = (byte)Math.max(0, Math.min(255, v));
+		}
+		return image;
+	}
+
+	/**
+	 * Same frame as frame(w, h, seed), blurred and with much stronger
+	 * pixel noise, so the rings of the smaller codes come out ragged.
+	 */
+	public static BufferedImage noisyFrame(int w, int h, long seed) {
+		float[] box = new float[9];
+		java.util.Arrays.fill(box, 1 / 9f);
+		BufferedImage image = new ConvolveOp(new Kernel(3, 3, box), ConvolveOp.EDGE_NO_OP, null)
+				.filter(frame(w, h, seed), new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR));
+
+		Random random = new Random(-seed);
+		byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+		for (int i=0; i<data.length; i++) {
+			int v = (data[i] & 0xff) + random.nextInt(81) - 40;
+			data[i] = (byte)Math.max(0, Math.min(255, v));
+		}
+		return image;
+	}
+
+	/**
+	 * A single code of the given diameter and orientation centered in a
+	 * white 200x200 frame in 3-byte BGR format.
+	 */
+	public static BufferedImage marker(int code, int diameter, float orientation) {
+		BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 200, 200);
+		TopCode marker = new TopCode(code);
+		marker.setLocation(100, 100);
+		marker.setDiameter(diameter);
+		marker.setOrientation(orientation);
+		marker.drawDesktop(g);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Sorted text description of the codes found by a scan (code, center,
+	 * unit and orientation), to compare two scans with.
+	 */
+	public static List<String> describe(List<TopCode> spots) {
+		List<String> list = new ArrayList<String>();
+		for (TopCode spot : spots) {
+			list.add(String.format("%d@%.2f,%.2f u%.3f o%.4f", spot.getCode(),
+					spot.getCenterX(), spot.getCenterY(), spot.getDiameter() / 8, spot.getOrientation()));
+		}
+		Collections.sort(list);
+		return list;
+	}
+}
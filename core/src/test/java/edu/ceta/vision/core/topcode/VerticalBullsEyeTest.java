@@ -0,0 +1,33 @@
+package edu.ceta.vision.core.topcode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * The vertical run test run before decoding must not drop a marker for
+ * a few stray pixels in the column through its center.
+ */
+public class VerticalBullsEyeTest {
+
+	@Test
+	public void strayPixelsInCenterColumnKeepMarker() {
+		int code = TopCode.generateCodes()[10].getCode();
+		for (int diameter=40; diameter<=64; diameter+=8) {
+			for (int i=0; i<13; i++) {
+				float orientation = (float)(i * Math.PI * 2 / 13);
+				BufferedImage image = SyntheticFrames.marker(code, diameter, orientation);
+
+				// one black pixel in the white center of every column
+				// around the center, above and below it by turns
+				for (int dx=-3; dx<=3; dx++) {
+					image.setRGB(100 + dx, 100 + ((dx & 1) == 0 ? -3 : 3), 0xff000000);
+				}
+				assertEquals("diameter " + diameter + ", orientation " + orientation, 
+						1, new ScannerDesktop().scan(image).size());
+			}
+		}
+	}
+}
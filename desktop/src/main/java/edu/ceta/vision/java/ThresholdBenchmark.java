@@ -0,0 +1,91 @@
+package edu.ceta.vision.java;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import edu.ceta.vision.core.topcode.BradleyThreshold;
+import edu.ceta.vision.core.topcode.SauvolaThreshold;
+import edu.ceta.vision.core.topcode.ScannerDesktop;
+import edu.ceta.vision.core.topcode.ThresholdStrategy;
+import edu.ceta.vision.core.topcode.TopCode;
+import edu.ceta.vision.core.topcode.WellnerThreshold;
+
+/**
+ * Compares the threshold strategies of the scanner on the same recorded
+ * frames: average scan time, candidates, tested candidates and markers
+ * found per frame.
+ * 
+ * Usage: ThresholdBenchmark <frames directory> [threads] [iterations]
+ */
+public class ThresholdBenchmark {
+
+	private static final int WARM_UP_ITERATIONS = 5;
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: ThresholdBenchmark <frames directory> [threads] [iterations]");
+			return;
+		}
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+		int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+		
+		List<int[]> frames = new ArrayList<int[]>();
+		List<int[]> sizes = new ArrayList<int[]>();
+		String[] files = new File(args[0]).list();
+		if (files == null) {
+			System.out.println(args[0] + " is not a directory");
+			System.out.println("Usage: ThresholdBenchmark <frames directory> [threads] [iterations]");
+			return;
+		}
+		Arrays.sort(files);
+		for (String file : files) {
+			BufferedImage image = ImageIO.read(new File(args[0], file));
+			if (image != null) {
+				int w = image.getWidth();
+				int h = image.getHeight();
+				frames.add(image.getRGB(0, 0, w, h, null, 0, w));
+				sizes.add(new int[] {w, h});
+			}
+		}
+		System.out.println(frames.size() + " frames, " + threads + " threads, " + iterations + " iterations");
+		
+		ThresholdStrategy[] strategies = {
+				new WellnerThreshold(), new BradleyThreshold(), new SauvolaThreshold()};
+		for (ThresholdStrategy strategy : strategies) {
+			ScannerDesktop scanner = new ScannerDesktop();
+			scanner.setThresholdStrategy(strategy);
+			scanner.setThresholdThreads(threads);
+			
+			long candidates = 0, tested = 0, found = 0;
+			long elapsed = 0;
+			for (int i=0; i<frames.size(); i++) {
+				int[] rgb = frames.get(i);
+				int w = sizes.get(i)[0];
+				int h = sizes.get(i)[1];
+				for (int n=0; n<WARM_UP_ITERATIONS; n++) {
+					scanner.scan(rgb, w, h);
+				}
+				long start = System.nanoTime();
+				List<TopCode> codes = null;
+				for (int n=0; n<iterations; n++) {
+					codes = scanner.scan(rgb, w, h);
+				}
+				elapsed += System.nanoTime() - start;
+				candidates += scanner.getCandidateCount();
+				tested += scanner.getTestedCount();
+				found += codes.size();
+			}
+			int count = Math.max(1, frames.size());
+			System.out.println(String.format("%-20s %8.2f ms/frame %8d candidates %6d tested %4d markers", 
+					strategy.getClass().getSimpleName(),
+					elapsed / 1e6 / (count * (double)iterations), 
+					candidates / count, tested / count, found / count));
+		}
+	}
+}